@@ -8,6 +8,8 @@ plugins {
     application
     id("org.sonarqube") version "6.2.0.5505"
     id("com.github.johnrengelman.shadow") version "8.1.1"
+    id("me.champeau.jmh") version "0.7.2"
+    id("gg.jte.gradle") version "3.2.1"
 }
 
 group = "hexlet.code"
@@ -20,6 +22,8 @@ repositories {
 dependencies {
     implementation("com.h2database:h2:2.3.232")
     implementation("com.zaxxer:HikariCP:6.3.0")
+    implementation("io.micrometer:micrometer-registry-prometheus:1.14.5")
+    implementation("com.github.ben-manes.caffeine:caffeine:3.1.8")
     implementation ("org.postgresql:postgresql:42.7.7")
 
     implementation("com.fasterxml.jackson.core:jackson-databind:2.18.3")
@@ -46,7 +50,6 @@ dependencies {
     testCompileOnly("org.projectlombok:lombok:1.18.38")
     testAnnotationProcessor("org.projectlombok:lombok:1.18.38")
 
-    implementation ("com.konghq:unirest-java:3.14.2")
     implementation ("org.jsoup:jsoup:1.17.2")
     testImplementation ("com.squareup.okhttp3:mockwebserver:4.12.0")
 
@@ -73,6 +76,26 @@ tasks.test {
     }
 }
 
+// Templates are translated to Java at build time and compiled with the main sources, so production
+// (APP_ENV=production) loads them as ordinary classes instead of running javac on first use
+jte {
+    sourceDirectory.set(file("src/main/resources/templates").toPath())
+    contentType.set(gg.jte.ContentType.Html)
+    generate()
+}
+
+tasks.withType<Checkstyle>().configureEach {
+    exclude("gg/jte/generated/**")
+}
+
+jmh {
+    jmhVersion.set("1.37")
+    warmupIterations.set(2)
+    iterations.set(5)
+    fork.set(1)
+    resultFormat.set("JSON")
+}
+
 tasks.jacocoTestReport {
     reports {
         xml.required.set(true)
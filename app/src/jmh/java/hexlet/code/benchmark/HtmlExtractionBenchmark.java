@@ -0,0 +1,64 @@
+package hexlet.code.benchmark;
+
+import hexlet.code.service.HtmlMetaExtractor;
+import hexlet.code.service.PageMeta;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HtmlExtractionBenchmark {
+    private static final long MAX_BODY_BYTES = 1024 * 1024;
+    private static final long BODY_SCAN_CHARS = 256 * 1024;
+
+    @Param({"small", "typical", "huge"})
+    public String page;
+
+    private byte[] html;
+
+    @Setup
+    public void setUp() {
+        String content = switch (page) {
+            case "small" -> buildPage(0, 0);
+            case "typical" -> buildPage(20, 200);
+            default -> buildPage(200, 20_000);
+        };
+        html = content.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public PageMeta extract() throws IOException {
+        return HtmlMetaExtractor.extract(new ByteArrayInputStream(html), StandardCharsets.UTF_8,
+                MAX_BODY_BYTES, BODY_SCAN_CHARS);
+    }
+
+    private static String buildPage(int scripts, int paragraphs) {
+        StringBuilder sb = new StringBuilder("<!DOCTYPE html><html><head><meta charset=\"utf-8\">");
+        sb.append("<title>Benchmark page</title>");
+        for (int i = 0; i < scripts; i++) {
+            sb.append("<script>var v").append(i).append(" = '<h1>not a heading</h1>';</script>");
+        }
+        sb.append("<meta name=\"description\" content=\"Page used by the extraction benchmark\">");
+        sb.append("</head><body><nav><a href=\"/\">Home</a></nav>");
+        for (int i = 0; i < paragraphs / 2; i++) {
+            sb.append("<p>Paragraph ").append(i).append(" with <b>inline</b> markup &amp; entities.</p>");
+        }
+        sb.append("<h1>Main <span>heading</span></h1>");
+        for (int i = paragraphs / 2; i < paragraphs; i++) {
+            sb.append("<p>Paragraph ").append(i).append(" with <b>inline</b> markup &amp; entities.</p>");
+        }
+        return sb.append("</body></html>").toString();
+    }
+}
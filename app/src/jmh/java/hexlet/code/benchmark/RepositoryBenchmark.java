@@ -0,0 +1,129 @@
+package hexlet.code.benchmark;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import hexlet.code.DatabaseInitializer;
+import hexlet.code.model.Page;
+import hexlet.code.model.Url;
+import hexlet.code.model.UrlCheck;
+import hexlet.code.model.UrlWithLastCheck;
+import hexlet.code.repository.UrlCheckRepository;
+import hexlet.code.repository.UrlRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Repository queries against an in-memory H2 database holding {@code rows} URLs with two checks each.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RepositoryBenchmark {
+    private static final int PAGE_SIZE = 50;
+    private static final int INSERT_BATCH = 1000;
+
+    @Param({"10000", "100000"})
+    public int rows;
+
+    private HikariDataSource dataSource;
+    private UrlRepository urlRepository;
+    private UrlCheckRepository urlCheckRepository;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        HikariConfig config = new HikariConfig();
+        config.setDriverClassName("org.h2.Driver");
+        config.setJdbcUrl("jdbc:h2:mem:benchmark-" + rows + ";DB_CLOSE_DELAY=-1");
+        config.setUsername("sa");
+        config.setPassword("");
+        dataSource = new HikariDataSource(config);
+        DatabaseInitializer.initialize(dataSource);
+        urlRepository = new UrlRepository(dataSource);
+        urlCheckRepository = new UrlCheckRepository(dataSource);
+        populate();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dataSource.close();
+    }
+
+    @Benchmark
+    public Optional<Url> findById() throws SQLException {
+        return urlRepository.findById(randomId());
+    }
+
+    @Benchmark
+    public Optional<Url> findByName() throws SQLException {
+        return urlRepository.findByName(nameOf(randomId()));
+    }
+
+    @Benchmark
+    public Page<UrlWithLastCheck> findPageWithLastCheck() throws SQLException {
+        return urlRepository.findPageWithLastCheck(randomId(), null, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public List<UrlCheck> findChecksByUrlId() throws SQLException {
+        return urlCheckRepository.findByUrlId(randomId());
+    }
+
+    @Benchmark
+    public Optional<UrlCheck> findLastCheckByUrlId() throws SQLException {
+        return urlCheckRepository.findLastCheckByUrlId(randomId());
+    }
+
+    private long randomId() {
+        return ThreadLocalRandom.current().nextLong(1, rows + 1);
+    }
+
+    private static String nameOf(long id) {
+        return "https://site-" + id + ".example.com";
+    }
+
+    private void populate() throws SQLException {
+        Timestamp now = Timestamp.from(Instant.now());
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement stmt = conn.prepareStatement("INSERT INTO urls (name, created_at) VALUES (?, ?)")) {
+            for (long id = 1; id <= rows; id++) {
+                stmt.setString(1, nameOf(id));
+                stmt.setTimestamp(2, now);
+                stmt.addBatch();
+                if (id % INSERT_BATCH == 0) {
+                    stmt.executeBatch();
+                }
+            }
+            stmt.executeBatch();
+        }
+        List<UrlCheck> checks = new ArrayList<>(INSERT_BATCH);
+        for (long id = 1; id <= rows; id++) {
+            checks.add(new UrlCheck(id, 200, "Title", "H1", "Description",
+                    Timestamp.from(now.toInstant().minusSeconds(3600))));
+            checks.add(new UrlCheck(id, 200, "Title", "H1", "Description", now));
+            if (checks.size() >= INSERT_BATCH) {
+                urlCheckRepository.saveAll(checks);
+                checks.clear();
+            }
+        }
+        urlCheckRepository.saveAll(checks);
+    }
+}
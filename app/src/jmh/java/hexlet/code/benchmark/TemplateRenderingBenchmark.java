@@ -0,0 +1,59 @@
+package hexlet.code.benchmark;
+
+import gg.jte.ContentType;
+import gg.jte.TemplateEngine;
+import gg.jte.output.StringOutput;
+import gg.jte.resolve.ResourceCodeResolver;
+import hexlet.code.model.Page;
+import hexlet.code.model.UrlWithLastCheck;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TemplateRenderingBenchmark {
+    @Param({"50", "1000", "10000"})
+    public int urls;
+
+    private TemplateEngine templateEngine;
+    private Map<String, Object> params;
+
+    @Setup
+    public void setUp() {
+        ClassLoader classLoader = TemplateRenderingBenchmark.class.getClassLoader();
+        templateEngine = TemplateEngine.create(new ResourceCodeResolver("templates", classLoader), ContentType.Html);
+        Timestamp now = Timestamp.from(Instant.now());
+        List<UrlWithLastCheck> items = new ArrayList<>(urls);
+        for (long id = 1; id <= urls; id++) {
+            items.add(new UrlWithLastCheck(id, "https://site-" + id + ".example.com", now,
+                    id % 3 == 0 ? null : 200, id % 3 == 0 ? null : now));
+        }
+        params = Map.of(
+                "urls", new Page<>(items, true, true),
+                "limit", urls,
+                "flash", "",
+                "flashType", "info");
+        render();
+    }
+
+    @Benchmark
+    public String render() {
+        StringOutput output = new StringOutput();
+        templateEngine.render("urls.jte", params, output);
+        return output.toString();
+    }
+}
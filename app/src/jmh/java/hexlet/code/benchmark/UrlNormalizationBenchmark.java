@@ -0,0 +1,30 @@
+package hexlet.code.benchmark;
+
+import hexlet.code.controller.UrlsController;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.net.MalformedURLException;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class UrlNormalizationBenchmark {
+    @Param({
+        "https://example.com",
+        "HTTPS://Example.COM:8443/some/long/path?with=query&and=more#fragment",
+        "http://sub.domain.example.org/index.html"
+    })
+    public String inputUrl;
+
+    @Benchmark
+    public String normalize() throws MalformedURLException {
+        return UrlsController.normalizeUrl(inputUrl);
+    }
+}
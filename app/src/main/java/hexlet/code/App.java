@@ -1,14 +1,26 @@
 package hexlet.code;
 
+import hexlet.code.controller.ApiController;
+import hexlet.code.controller.SchedulerController;
 import hexlet.code.controller.UrlsController;
+import hexlet.code.metrics.AppMetrics;
+import hexlet.code.repository.CachedUrlRepository;
 import hexlet.code.repository.UrlRepository;
 import hexlet.code.repository.UrlCheckRepository;
+import hexlet.code.repository.UrlCheckWriteBuffer;
+import hexlet.code.service.BulkCheckReport;
+import hexlet.code.service.BulkCheckService;
+import hexlet.code.service.CheckQueue;
+import hexlet.code.service.CheckRetentionJob;
+import hexlet.code.service.HostCircuitBreaker;
+import hexlet.code.service.HostRateLimiter;
+import hexlet.code.service.LastCheckBackfill;
+import hexlet.code.service.PageFetcher;
+import hexlet.code.service.RecheckScheduler;
+import hexlet.code.service.UrlCheckService;
 
 import io.javalin.Javalin;
-import org.eclipse.jetty.server.session.DefaultSessionCache;
-import org.eclipse.jetty.server.session.DefaultSessionIdManager;
-import org.eclipse.jetty.server.session.NullSessionDataStore;
-import org.eclipse.jetty.server.session.SessionHandler;
+import io.micrometer.core.instrument.Gauge;
 import lombok.extern.slf4j.Slf4j;
 
 import gg.jte.ContentType;
@@ -18,47 +30,125 @@ import gg.jte.resolve.ResourceCodeResolver;
 
 import javax.sql.DataSource;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 
 @Slf4j
 public class App {
+    // Production uses the templates precompiled by the build; other environments compile them on first use
+    // and pick up template edits without a rebuild
     private static TemplateEngine createTemplateEngine() {
+        if (isProduction()) {
+            return TemplateEngine.createPrecompiled(ContentType.Html);
+        }
         ClassLoader classLoader = App.class.getClassLoader();
         ResourceCodeResolver codeResolver = new ResourceCodeResolver("templates", classLoader);
         TemplateEngine templateEngine = TemplateEngine.create(codeResolver, ContentType.Html);
         return templateEngine;
     }
 
-    public static Javalin getApp() throws SQLException {
+    private static boolean isProduction() {
+        return "production".equalsIgnoreCase(AppConfig.getString("APP_ENV", "development"));
+    }
+
+    private static void runBulkCheck(String nameFilter) throws SQLException, InterruptedException {
         DataSource dataSource = DataSourceConfig.getDataSource();
         DatabaseInitializer.initialize(dataSource);
         UrlRepository urlRepository = new UrlRepository(dataSource);
         UrlCheckRepository urlCheckRepository = new UrlCheckRepository(dataSource);
+        try (PageFetcher pageFetcher = PageFetcher.fromEnv()) {
+            UrlCheckService urlCheckService = new UrlCheckService(urlCheckRepository, pageFetcher);
+            BulkCheckReport report = BulkCheckService.fromEnv(urlRepository, urlCheckRepository, urlCheckService)
+                    .checkAll(nameFilter);
+            System.out.println(report);
+        }
+    }
+
+    private static List<Gauge> registerGauges(CheckQueue checkQueue, RecheckScheduler recheckScheduler) {
+        return List.of(
+                AppMetrics.registerGauge("check.queue.depth", "Checks waiting in the check queue",
+                        checkQueue, CheckQueue::getQueueDepth),
+                AppMetrics.registerGauge("check.queue.active", "Checks the check queue is running",
+                        checkQueue, CheckQueue::getActiveCount),
+                AppMetrics.registerGauge("recheck.scheduler.lag.seconds",
+                        "How far behind schedule the most overdue URL was at the last tick",
+                        recheckScheduler, RecheckScheduler::getLagSeconds));
+    }
+
+    public static Javalin getApp() throws SQLException {
+        DataSource dataSource = DataSourceConfig.getDataSource();
+        DatabaseInitializer.initialize(dataSource);
+        UrlRepository urlRepository = CachedUrlRepository.fromEnv(dataSource);
+        UrlCheckRepository urlCheckRepository = new UrlCheckRepository(dataSource);
+
+        PageFetcher pageFetcher = PageFetcher.fromEnv();
+        UrlCheckWriteBuffer writeBuffer = UrlCheckWriteBuffer.fromEnv(urlCheckRepository);
+        UrlCheckService urlCheckService = new UrlCheckService(urlCheckRepository, writeBuffer, pageFetcher,
+                HostRateLimiter.fromEnv(), HostCircuitBreaker.fromEnv());
+        CheckQueue checkQueue = CheckQueue.fromEnv(urlCheckService);
+
+        RecheckScheduler recheckScheduler = RecheckScheduler.fromEnv(urlRepository, checkQueue);
+        CheckRetentionJob checkRetentionJob = CheckRetentionJob.fromEnv(urlCheckRepository);
+        // The registry outlives the app, so the gauges only exist while this app is running
+        List<Gauge> gauges = new ArrayList<>();
 
-        UrlsController.init(urlRepository, urlCheckRepository);
+        UrlsController.init(urlRepository, urlCheckRepository, checkQueue);
+        SchedulerController.init(recheckScheduler, checkQueue);
+        ApiController.init(urlRepository, urlCheckRepository);
 
         var app = Javalin.create(config -> {
             config.bundledPlugins.enableDevLogging();
             config.fileRenderer(new JavalinJte(createTemplateEngine()));
-
-            config.jetty.modifyServer(server -> {
-                SessionHandler sessionHandler = new SessionHandler();
-                sessionHandler.setSessionIdManager(new DefaultSessionIdManager(server));
-                DefaultSessionCache sessionCache = new DefaultSessionCache(sessionHandler);
-                sessionCache.setSessionDataStore(new NullSessionDataStore());
-                sessionHandler.setSessionCache(sessionCache);
-                server.setHandler(sessionHandler);
+            config.events.serverStarted(recheckScheduler::start);
+            config.events.serverStarted(checkRetentionJob::start);
+            config.events.serverStarted(() -> gauges.addAll(registerGauges(checkQueue, recheckScheduler)));
+            config.events.serverStopping(recheckScheduler::stop);
+            config.events.serverStopping(checkRetentionJob::stop);
+            config.events.serverStopped(() -> {
+                checkQueue.shutdown();
+                if (writeBuffer != null) {
+                    writeBuffer.close();
+                }
+                pageFetcher.close();
+                gauges.forEach(AppMetrics::removeGauge);
+                gauges.clear();
             });
         });
 
+        app.before(AppMetrics::startRequest);
+        app.after(AppMetrics::finishRequest);
+
         app.get(NamedRoutes.rootPath(), UrlsController::index);
         app.post(NamedRoutes.urlsPath(), UrlsController::create);
         app.get(NamedRoutes.urlsPath(), UrlsController::list);
         app.get(NamedRoutes.urlsPath() + "/{id}", UrlsController::show);
         app.post(NamedRoutes.urlsPath() + "/{id}/checks", UrlsController::check);
+        app.get(NamedRoutes.schedulerStatusPath(), SchedulerController::status);
+        app.get(NamedRoutes.apiUrlsPath(), ApiController::listUrls);
+        app.get(NamedRoutes.apiUrlsPath() + "/{id}", ApiController::showUrl);
+        app.get(NamedRoutes.apiUrlsPath() + "/{id}/checks", ApiController::listChecks);
+        app.get(NamedRoutes.metricsPath(), ctx -> ctx.contentType(AppMetrics.PROMETHEUS_CONTENT_TYPE)
+                .result(AppMetrics.scrape()));
 
         return app;
     }
-    public static void main(String[] args) throws SQLException {
+
+    private static void runLastCheckBackfill() throws SQLException {
+        DataSource dataSource = DataSourceConfig.getDataSource();
+        DatabaseInitializer.initialize(dataSource);
+        long updated = LastCheckBackfill.fromEnv(new UrlRepository(dataSource)).run();
+        System.out.println("Backfilled last checks for " + updated + " URLs");
+    }
+
+    public static void main(String[] args) throws SQLException, InterruptedException {
+        if (args.length > 0 && "check-all".equals(args[0])) {
+            runBulkCheck(args.length > 1 ? args[1] : null);
+            return;
+        }
+        if (args.length > 0 && "backfill-last-checks".equals(args[0])) {
+            runLastCheckBackfill();
+            return;
+        }
         Javalin app = getApp();
         int port = Integer.parseInt(System.getenv().getOrDefault("PORT", "8080"));
         app.start(port);
@@ -0,0 +1,26 @@
+package hexlet.code;
+
+public final class AppConfig {
+    private AppConfig() {
+    }
+
+    public static String getString(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value == null || value.isBlank() ? defaultValue : value.trim();
+    }
+
+    public static int getInt(String name, int defaultValue) {
+        String value = getString(name, null);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    public static long getLong(String name, long defaultValue) {
+        String value = getString(name, null);
+        return value == null ? defaultValue : Long.parseLong(value);
+    }
+
+    public static boolean getBoolean(String name, boolean defaultValue) {
+        String value = getString(name, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+}
@@ -2,6 +2,8 @@ package hexlet.code;
 
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import hexlet.code.metrics.AppMetrics;
 import javax.sql.DataSource;
 
 public class DataSourceConfig {
@@ -20,7 +22,10 @@ public class DataSourceConfig {
             } else {
                 config.setDriverClassName("org.postgresql.Driver");
                 config.setJdbcUrl(jdbcUrl);
+                // lets the driver send JDBC batches of inserts as multi-row VALUES statements
+                config.addDataSourceProperty("reWriteBatchedInserts", "true");
             }
+            config.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(AppMetrics.registry()));
             dataSource = new HikariDataSource(config);
         }
         return dataSource;
@@ -1,25 +1,113 @@
 package hexlet.code;
 
+import lombok.extern.slf4j.Slf4j;
+
 import javax.sql.DataSource;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
-import java.sql.Statement;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
+/**
+ * Brings the schema up to date by applying the versioned scripts from db/migration that are not yet recorded
+ * in the schema_version table. Each script runs in its own transaction together with its version row,
+ * so startup never touches data that already exists. On PostgreSQL a failed script is rolled back as a whole,
+ * but H2 commits DDL implicitly and may keep the statements that ran before the failure; every statement
+ * is therefore written to be idempotent (IF NOT EXISTS, IF EXISTS), so a failed script can be retried on both.
+ * New migrations are appended to {@link #MIGRATIONS} as V&lt;n&gt;__&lt;description&gt;.sql.
+ */
+@Slf4j
 public class DatabaseInitializer {
+    private static final String MIGRATION_LOCATION = "db/migration/";
+    private static final List<String> MIGRATIONS = List.of(
+            "V1__create_urls_and_url_checks.sql",
+            "V2__index_url_checks_by_url_id_created_at.sql",
+            "V3__add_last_check_summary_to_urls.sql",
+            "V4__create_url_check_daily_rollups.sql",
+            "V5__add_outcome_to_url_checks.sql",
+            "V6__add_fetch_validators_to_url_checks.sql",
+            "V7__add_timings_to_url_checks.sql",
+            "V8__index_urls_by_last_check_id.sql",
+            "V9__drop_connection_setup_timings_from_url_checks.sql"
+    );
+
     public static void initialize(DataSource dataSource) throws SQLException {
-        try (Connection conn = dataSource.getConnection();
-             Statement stmt = conn.createStatement()) {
-            InputStream sqlStream = DatabaseInitializer.class.getClassLoader()
-                    .getResourceAsStream("database.sql");
-            if (sqlStream == null) {
-                throw new SQLException("Resource database.sql not found in classpath");
+        try (Connection conn = dataSource.getConnection()) {
+            createVersionTable(conn);
+            Set<Integer> applied = findAppliedVersions(conn);
+            for (String migration : MIGRATIONS) {
+                int version = versionOf(migration);
+                if (!applied.contains(version)) {
+                    apply(conn, version, migration);
+                }
+            }
+        }
+    }
+
+    private static void createVersionTable(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS schema_version ("
+                    + "version INTEGER PRIMARY KEY, "
+                    + "script VARCHAR(255) NOT NULL, "
+                    + "installed_at TIMESTAMP NOT NULL)");
+        }
+    }
+
+    private static Set<Integer> findAppliedVersions(Connection conn) throws SQLException {
+        Set<Integer> versions = new HashSet<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT version FROM schema_version")) {
+            while (rs.next()) {
+                versions.add(rs.getInt("version"));
             }
-            String sql = new String(sqlStream.readAllBytes());
+        }
+        return versions;
+    }
+
+    private static void apply(Connection conn, int version, String migration) throws SQLException {
+        String sql = readScript(migration);
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try (Statement stmt = conn.createStatement();
+             PreparedStatement record = conn.prepareStatement(
+                     "INSERT INTO schema_version (version, script, installed_at) VALUES (?, ?, ?)")) {
             stmt.execute(sql);
-        } catch (Exception e) {
-            throw new SQLException("Failed to initialize database", e);
+            record.setInt(1, version);
+            record.setString(2, migration);
+            record.setTimestamp(3, Timestamp.from(Instant.now()));
+            record.executeUpdate();
+            conn.commit();
+            log.info("Applied migration {}", migration);
+        } catch (SQLException e) {
+            conn.rollback();
+            throw new SQLException("Failed to apply migration " + migration, e);
+        } finally {
+            conn.setAutoCommit(autoCommit);
         }
     }
-}
 
+    private static int versionOf(String migration) {
+        return Integer.parseInt(migration.substring(1, migration.indexOf("__")));
+    }
+
+    private static String readScript(String migration) throws SQLException {
+        try (InputStream sqlStream = DatabaseInitializer.class.getClassLoader()
+                .getResourceAsStream(MIGRATION_LOCATION + migration)) {
+            if (sqlStream == null) {
+                throw new SQLException("Migration " + migration + " not found in classpath");
+            }
+            return new String(sqlStream.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new SQLException("Failed to read migration " + migration, e);
+        }
+    }
+}
@@ -12,4 +12,24 @@ public class NamedRoutes {
     public static String urlPath(Long id) {
         return "/urls/" + id;
     }
+
+    public static String schedulerStatusPath() {
+        return "/scheduler/status";
+    }
+
+    public static String metricsPath() {
+        return "/metrics";
+    }
+
+    public static String apiUrlsPath() {
+        return "/api/urls";
+    }
+
+    public static String apiUrlPath(Long id) {
+        return apiUrlsPath() + "/" + id;
+    }
+
+    public static String apiUrlChecksPath(Long id) {
+        return apiUrlPath(id) + "/checks";
+    }
 }
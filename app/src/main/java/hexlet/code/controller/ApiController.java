@@ -0,0 +1,188 @@
+package hexlet.code.controller;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import hexlet.code.model.CheckCursor;
+import hexlet.code.model.UrlCheck;
+import hexlet.code.model.UrlWithLastCheck;
+import hexlet.code.repository.UrlCheckRepository;
+import hexlet.code.repository.UrlRepository;
+import io.javalin.http.Context;
+import io.javalin.http.HttpStatus;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Read-only JSON API. Lists are written with a streaming {@link JsonGenerator} straight from the result set
+ * as rows arrive, so no list of models is built and memory use does not depend on how many rows are returned.
+ */
+@Slf4j
+public class ApiController {
+    private static final String JSON_CONTENT_TYPE = "application/json";
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static UrlRepository urlRepository;
+    private static UrlCheckRepository urlCheckRepository;
+
+    public static void init(UrlRepository urlRepo, UrlCheckRepository checkRepo) {
+        urlRepository = urlRepo;
+        urlCheckRepository = checkRepo;
+    }
+
+    public static void listUrls(Context ctx) {
+        long after = ctx.queryParamAsClass("after", Long.class).getOrDefault(0L);
+        Integer limit = ctx.queryParamAsClass("limit", Integer.class).allowNullable()
+                .check(value -> value == null || value > 0, "limit must be positive").get();
+        stream(ctx, generator -> {
+            generator.writeStartArray();
+            urlRepository.streamWithLastCheck(after, limit, url -> write(generator, url));
+            generator.writeEndArray();
+        });
+    }
+
+    public static void showUrl(Context ctx) {
+        Long id = ctx.pathParamAsClass("id", Long.class).get();
+        Optional<UrlWithLastCheck> url;
+        try {
+            url = urlRepository.findWithLastCheckById(id);
+        } catch (SQLException e) {
+            log.error("API: database error finding URL by id: {}", id, e);
+            error(ctx, HttpStatus.INTERNAL_SERVER_ERROR, "Database error");
+            return;
+        }
+        if (url.isEmpty()) {
+            error(ctx, HttpStatus.NOT_FOUND, "URL not found");
+            return;
+        }
+        stream(ctx, generator -> write(generator, url.get()));
+    }
+
+    public static void listChecks(Context ctx) {
+        Long id = ctx.pathParamAsClass("id", Long.class).get();
+        Integer limit = ctx.queryParamAsClass("limit", Integer.class).allowNullable()
+                .check(value -> value == null || value > 0, "limit must be positive").get();
+        CheckCursor before = null;
+        String beforeParam = ctx.queryParam("before");
+        if (beforeParam != null && !beforeParam.isBlank()) {
+            try {
+                before = CheckCursor.parse(beforeParam);
+            } catch (IllegalArgumentException e) {
+                error(ctx, HttpStatus.BAD_REQUEST, "Invalid cursor");
+                return;
+            }
+        }
+        try {
+            if (urlRepository.findById(id).isEmpty()) {
+                error(ctx, HttpStatus.NOT_FOUND, "URL not found");
+                return;
+            }
+        } catch (SQLException e) {
+            log.error("API: database error finding URL by id: {}", id, e);
+            error(ctx, HttpStatus.INTERNAL_SERVER_ERROR, "Database error");
+            return;
+        }
+        CheckCursor cursor = before;
+        stream(ctx, generator -> {
+            generator.writeStartArray();
+            urlCheckRepository.streamByUrlId(id, cursor, limit, check -> write(generator, check));
+            generator.writeEndArray();
+        });
+    }
+
+    // Once rows have been flushed the status line is gone, so a failure mid-stream can only cut the body
+    // short; the truncated document is invalid JSON, which clients cannot mistake for a complete list.
+    private static void stream(Context ctx, JsonBody body) {
+        ctx.contentType(JSON_CONTENT_TYPE);
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(ctx.outputStream(), JsonEncoding.UTF8)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+            body.write(generator);
+        } catch (SQLException | IOException | UncheckedIOException e) {
+            log.error("API: failed to stream {}: {}", ctx.path(), e.getMessage());
+            if (!ctx.res().isCommitted()) {
+                ctx.res().resetBuffer();
+                error(ctx, HttpStatus.INTERNAL_SERVER_ERROR, "Database error");
+            }
+        }
+    }
+
+    private static void error(Context ctx, HttpStatus status, String message) {
+        ctx.status(status).json(Map.of("error", message));
+    }
+
+    private static void write(JsonGenerator generator, UrlWithLastCheck url) {
+        try {
+            generator.writeStartObject();
+            generator.writeNumberField("id", url.getId());
+            generator.writeStringField("name", url.getName());
+            writeTimestamp(generator, "createdAt", url.getCreatedAt());
+            if (url.hasLastCheck()) {
+                generator.writeObjectFieldStart("lastCheck");
+                writeNullableNumber(generator, "statusCode", url.getLastCheckStatusCode());
+                writeTimestamp(generator, "createdAt", url.getLastCheckCreatedAt());
+                generator.writeEndObject();
+            } else {
+                generator.writeNullField("lastCheck");
+            }
+            generator.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void write(JsonGenerator generator, UrlCheck check) {
+        try {
+            generator.writeStartObject();
+            generator.writeNumberField("id", check.getId());
+            generator.writeNumberField("urlId", check.getUrlId());
+            generator.writeNumberField("statusCode", check.getStatusCode());
+            generator.writeStringField("title", check.getTitle());
+            generator.writeStringField("h1", check.getH1());
+            generator.writeStringField("description", check.getDescription());
+            writeTimestamp(generator, "createdAt", check.getCreatedAt());
+            if (check.getOutcome() != null) {
+                generator.writeStringField("outcome", check.getOutcome().name());
+            } else {
+                generator.writeNullField("outcome");
+            }
+            generator.writeObjectFieldStart("timings");
+            writeNullableNumber(generator, "ttfbMs", check.getTtfbMillis());
+            writeNullableNumber(generator, "totalMs", check.getTotalMillis());
+            writeNullableNumber(generator, "responseBytes", check.getResponseBytes());
+            writeNullableNumber(generator, "redirectCount", check.getRedirectCount());
+            generator.writeStringField("protocol", check.getProtocol());
+            generator.writeEndObject();
+            generator.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeNullableNumber(JsonGenerator generator, String name, Number value)
+            throws IOException {
+        if (value != null) {
+            generator.writeNumberField(name, value.longValue());
+        } else {
+            generator.writeNullField(name);
+        }
+    }
+
+    private static void writeTimestamp(JsonGenerator generator, String name, Timestamp value) throws IOException {
+        if (value != null) {
+            generator.writeStringField(name, value.toInstant().toString());
+        } else {
+            generator.writeNullField(name);
+        }
+    }
+
+    @FunctionalInterface
+    private interface JsonBody {
+        void write(JsonGenerator generator) throws IOException, SQLException;
+    }
+}
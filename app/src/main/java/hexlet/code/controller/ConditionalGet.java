@@ -0,0 +1,53 @@
+package hexlet.code.controller;
+
+import io.javalin.http.Context;
+import io.javalin.http.Header;
+import io.javalin.http.HttpStatus;
+
+/**
+ * Answers conditional GETs from a version marker computed before any page query runs.
+ * Pages are marked private and must be revalidated on each use, so browsers and the dashboard keep a copy
+ * but always ask first, and get an empty 304 while the marker is unchanged.
+ */
+final class ConditionalGet {
+    private static final String WEAK_PREFIX = "W/";
+
+    private ConditionalGet() {
+    }
+
+    /**
+     * Sets the ETag for the version and, when the request already holds it, answers 304 Not Modified.
+     * @param ctx the request context
+     * @param version the version marker of the page, unique across pages
+     * @return true if a 304 was sent and the page must not be rendered
+     */
+    static boolean notModified(Context ctx, String version) {
+        String etag = WEAK_PREFIX + "\"" + version + "\"";
+        ctx.header(Header.ETAG, etag);
+        ctx.header(Header.CACHE_CONTROL, "private, no-cache");
+        if (matches(ctx.header(Header.IF_NONE_MATCH), etag)) {
+            ctx.status(HttpStatus.NOT_MODIFIED);
+            return true;
+        }
+        return false;
+    }
+
+    // Weak comparison as required for If-None-Match: the W/ prefix is ignored on both sides
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        String opaque = stripWeak(etag);
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*") || stripWeak(tag).equals(opaque)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String stripWeak(String tag) {
+        return tag.startsWith(WEAK_PREFIX) ? tag.substring(WEAK_PREFIX.length()) : tag;
+    }
+}
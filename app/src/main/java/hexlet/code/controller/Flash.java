@@ -0,0 +1,126 @@
+package hexlet.code.controller;
+
+import hexlet.code.AppConfig;
+import io.javalin.http.Context;
+import io.javalin.http.Cookie;
+import io.javalin.http.SameSite;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.Base64;
+
+/**
+ * Flash messages carried by a short-lived, HMAC-signed cookie instead of a server-side session, so the server
+ * keeps no per-client state and any replica can show a message set by another one. Replicas must share the
+ * FLASH_SECRET environment variable; without it every process signs with its own random key.
+ */
+@Slf4j
+public final class Flash {
+    static final String COOKIE_NAME = "flash";
+    private static final int MAX_AGE_SECONDS = 60;
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+    private static final SecretKeySpec KEY = new SecretKeySpec(secret(), HMAC_ALGORITHM);
+
+    private Flash() {
+    }
+
+    /**
+     * A flash message and its Bootstrap alert type.
+     * @param text the message
+     * @param type the alert type, e.g. success or danger
+     */
+    public record Message(String text, String type) {
+    }
+
+    /**
+     * Sets the message shown by the next page the client loads.
+     * @param ctx the request context
+     * @param text the message
+     * @param type the alert type, e.g. success or danger
+     */
+    public static void set(Context ctx, String text, String type) {
+        long expiresAt = Instant.now().getEpochSecond() + MAX_AGE_SECONDS;
+        String payload = ENCODER.encodeToString((expiresAt + "\n" + type + "\n" + text)
+                .getBytes(StandardCharsets.UTF_8));
+        Cookie cookie = new Cookie(COOKIE_NAME, payload + "." + sign(payload));
+        cookie.setPath("/");
+        cookie.setMaxAge(MAX_AGE_SECONDS);
+        cookie.setHttpOnly(true);
+        cookie.setSameSite(SameSite.LAX);
+        ctx.cookie(cookie);
+    }
+
+    /**
+     * Returns whether the request carries a flash cookie, valid or not, that the page would consume.
+     * @param ctx the request context
+     * @return true if a flash cookie is present
+     */
+    public static boolean isPending(Context ctx) {
+        return ctx.cookie(COOKIE_NAME) != null;
+    }
+
+    /**
+     * Reads and clears the flash message. Tampered, malformed and expired cookies are cleared and ignored.
+     * @param ctx the request context
+     * @return the message, or null when there is none
+     */
+    public static Message consume(Context ctx) {
+        String value = ctx.cookie(COOKIE_NAME);
+        if (value == null) {
+            return null;
+        }
+        ctx.removeCookie(COOKIE_NAME, "/");
+        return parse(value);
+    }
+
+    private static Message parse(String value) {
+        int dot = value.lastIndexOf('.');
+        if (dot < 0) {
+            return null;
+        }
+        String payload = value.substring(0, dot);
+        byte[] signature = value.substring(dot + 1).getBytes(StandardCharsets.US_ASCII);
+        if (!MessageDigest.isEqual(signature, sign(payload).getBytes(StandardCharsets.US_ASCII))) {
+            log.warn("Ignoring flash cookie with an invalid signature");
+            return null;
+        }
+        String[] parts;
+        try {
+            parts = new String(DECODER.decode(payload), StandardCharsets.UTF_8).split("\n", 3);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (parts.length < 3 || Long.parseLong(parts[0]) < Instant.now().getEpochSecond()) {
+            return null;
+        }
+        return new Message(parts[2], parts[1]);
+    }
+
+    private static String sign(String payload) {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(KEY);
+            return ENCODER.encodeToString(mac.doFinal(payload.getBytes(StandardCharsets.US_ASCII)));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HMAC-SHA256 is not available", e);
+        }
+    }
+
+    private static byte[] secret() {
+        String configured = AppConfig.getString("FLASH_SECRET", null);
+        if (configured != null) {
+            return configured.getBytes(StandardCharsets.UTF_8);
+        }
+        byte[] random = new byte[32];
+        new SecureRandom().nextBytes(random);
+        return random;
+    }
+}
@@ -0,0 +1,29 @@
+package hexlet.code.controller;
+
+import hexlet.code.service.CheckQueue;
+import hexlet.code.service.RecheckScheduler;
+import io.javalin.http.Context;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class SchedulerController {
+    private static RecheckScheduler recheckScheduler;
+    private static CheckQueue checkQueue;
+
+    public static void init(RecheckScheduler scheduler, CheckQueue queue) {
+        recheckScheduler = scheduler;
+        checkQueue = queue;
+    }
+
+    public static void status(Context ctx) {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("enabled", recheckScheduler.isEnabled());
+        status.put("lagSeconds", recheckScheduler.getLagSeconds());
+        status.put("lastDueCount", recheckScheduler.getLastDueCount());
+        status.put("lastTickAt", String.valueOf(recheckScheduler.getLastTickAt()));
+        status.put("queueDepth", checkQueue.getQueueDepth());
+        status.put("activeChecks", checkQueue.getActiveCount());
+        ctx.json(status);
+    }
+}
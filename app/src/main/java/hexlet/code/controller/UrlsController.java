@@ -1,11 +1,17 @@
 package hexlet.code.controller;
 
 import hexlet.code.NamedRoutes;
+import hexlet.code.model.CheckCursor;
+import hexlet.code.model.DailyCheckRollup;
+import hexlet.code.model.LatencyTrend;
+import hexlet.code.model.Page;
 import hexlet.code.model.Url;
 import hexlet.code.model.UrlCheck;
+import hexlet.code.model.UrlWithLastCheck;
+import hexlet.code.repository.DataVersion;
 import hexlet.code.repository.UrlRepository;
 import hexlet.code.repository.UrlCheckRepository;
-import hexlet.code.service.UrlCheckService;
+import hexlet.code.service.CheckQueue;
 import io.javalin.http.Context;
 import lombok.extern.slf4j.Slf4j;
 
@@ -16,113 +22,116 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.time.Instant;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
 @Slf4j
 public class UrlsController {
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 500;
+    private static final int DEFAULT_HISTORY_SIZE = 25;
+    private static final int ROLLUP_DAYS = 30;
+
     private static UrlRepository urlRepository;
     private static UrlCheckRepository urlCheckRepository;
-    private static UrlCheckService urlCheckService;
+    private static CheckQueue checkQueue;
 
-    public static void init(UrlRepository urlRepo, UrlCheckRepository checkRepo) {
+    public static void init(UrlRepository urlRepo, UrlCheckRepository checkRepo, CheckQueue queue) {
         urlRepository = urlRepo;
         urlCheckRepository = checkRepo;
-        urlCheckService = new UrlCheckService(urlCheckRepository);
+        checkQueue = queue;
     }
 
     public static void index(Context ctx) {
-        String flash = ctx.consumeSessionAttribute("flash");
-        String flashType = ctx.consumeSessionAttribute("flashType");
-        log.info("GET /: Consumed flash: {}, flashType: {}", flash, flashType);
+        Flash.Message flash = Flash.consume(ctx);
+        log.info("GET /: Consumed flash: {}", flash);
         ctx.render("index.jte", Map.of(
-                "flash", flash != null ? flash : "",
-                "flashType", flashType != null ? flashType : "info"
+                "flash", flash != null ? flash.text() : "",
+                "flashType", flash != null ? flash.type() : "info"
         ));
     }
 
+    /**
+     * Reduces a user-supplied URL to its lower-cased scheme, host and explicit port.
+     * @param inputUrl the URL as entered by the user
+     * @return the normalized URL, e.g. {@code https://example.com:8080}
+     * @throws MalformedURLException if the URL cannot be parsed
+     * @throws IllegalArgumentException if the URL is not absolute or has illegal characters
+     */
+    public static String normalizeUrl(String inputUrl) throws MalformedURLException {
+        URL url = URI.create(inputUrl).toURL();
+        StringBuilder sb = new StringBuilder();
+        sb.append(url.getProtocol()).append("://").append(url.getHost());
+        if (url.getPort() != -1) {
+            sb.append(":").append(url.getPort());
+        }
+        return sb.toString().toLowerCase();
+    }
+
     public static void create(Context ctx) {
         String inputUrl = ctx.formParam("url");
         log.info("Received URL (raw): {}", inputUrl);
         if (inputUrl == null || inputUrl.isBlank()) {
             log.warn("Invalid URL: null or blank");
-            ctx.sessionAttribute("flash", "Некорректный URL");
-            ctx.sessionAttribute("flashType", "danger");
+            Flash.set(ctx, "Некорректный URL", "danger");
             ctx.redirect(NamedRoutes.rootPath());
             return;
         }
         String normalizedUrl;
         try {
-            URL url = URI.create(inputUrl).toURL();
-            StringBuilder sb = new StringBuilder();
-            sb.append(url.getProtocol()).append("://").append(url.getHost());
-            if (url.getPort() != -1) {
-                sb.append(":").append(url.getPort());
-            }
-            normalizedUrl = sb.toString().toLowerCase();
+            normalizedUrl = normalizeUrl(inputUrl);
             log.info("Normalized URL (before save): {}", normalizedUrl);
         } catch (MalformedURLException | IllegalArgumentException e) {
             log.warn("URL parsing error for input: {}. Reason: {}", inputUrl, e.getMessage());
-            ctx.sessionAttribute("flash", "Некорректный URL");
-            ctx.sessionAttribute("flashType", "danger");
+            Flash.set(ctx, "Некорректный URL", "danger");
             ctx.redirect(NamedRoutes.rootPath());
             return;
         }
 
         try {
-            Optional<Url> existingUrl = urlRepository.findByName(normalizedUrl);
-            if (existingUrl.isPresent()) {
+            Url url = new Url(normalizedUrl, Timestamp.from(Instant.now()));
+            if (!urlRepository.saveIfAbsent(url)) {
                 log.info("URL already exists: {}", normalizedUrl);
-                ctx.sessionAttribute("flash", "Страница уже существует");
-                ctx.sessionAttribute("flashType", "info");
+                Flash.set(ctx, "Страница уже существует", "info");
                 ctx.redirect(NamedRoutes.urlsPath());
                 return;
             }
-
-            Url url = new Url(normalizedUrl, Timestamp.from(Instant.now()));
-            url = urlRepository.save(url);
             log.info("URL saved with id: {} and name: {}", url.getId(), url.getName());
-            ctx.sessionAttribute("flash", "Страница успешно добавлена");
-            ctx.sessionAttribute("flashType", "success");
+            Flash.set(ctx, "Страница успешно добавлена", "success");
             ctx.redirect(NamedRoutes.urlsPath());
         } catch (SQLException e) {
             log.error("Database error saving URL: {}, error: {}", normalizedUrl, e.getMessage());
-            ctx.sessionAttribute("flash", "Ошибка при добавлении URL");
-            ctx.sessionAttribute("flashType", "danger");
+            Flash.set(ctx, "Ошибка при добавлении URL", "danger");
             ctx.redirect(NamedRoutes.rootPath());
         }
     }
 
     public static void list(Context ctx) {
         try {
-            List<Url> urls = urlRepository.findAll();
-            Map<Long, UrlCheck> lastChecks = new HashMap<>();
-            for (Url url : urls) {
-                try {
-                    urlCheckRepository.findLastCheckByUrlId(url.getId())
-                            .ifPresent(check -> lastChecks.put(url.getId(), check));
-                } catch (SQLException e) {
-                    log.error("Error retrieving last check for URL {}: {}", url.getId(), e);
-                }
+            // a page carrying a flash message must not be revalidated later, when the message is gone
+            if (!Flash.isPending(ctx)
+                    && ConditionalGet.notModified(ctx, "urls-" + urlRepository.findListingVersion())) {
+                return;
             }
-            log.info("URLs retrieved: {}, content: {}", urls.size(), urls);
-            String flash = ctx.consumeSessionAttribute("flash");
-            String flashType = ctx.consumeSessionAttribute("flashType");
-            log.info("GET /urls: Consumed flash: {}, flashType: {}", flash, flashType);
+            Long after = ctx.queryParamAsClass("after", Long.class).allowNullable().get();
+            Long before = ctx.queryParamAsClass("before", Long.class).allowNullable().get();
+            int limit = Math.min(Math.max(ctx.queryParamAsClass("limit", Integer.class)
+                    .getOrDefault(DEFAULT_PAGE_SIZE), 1), MAX_PAGE_SIZE);
+            Page<UrlWithLastCheck> urls = urlRepository.findPageWithLastCheck(after, before, limit);
+            log.info("URLs retrieved: {} (after: {}, before: {}, limit: {})", urls.getItems().size(),
+                    after, before, limit);
+            Flash.Message flash = Flash.consume(ctx);
+            log.info("GET /urls: Consumed flash: {}", flash);
             ctx.render("urls.jte", Map.of(
                     "urls", urls,
-                    "lastChecks", lastChecks,
-                    "flash", flash != null ? flash : "",
-                    "flashType", flashType != null ? flashType : "info"
+                    "limit", limit,
+                    "flash", flash != null ? flash.text() : "",
+                    "flashType", flash != null ? flash.type() : "info"
             ));
         } catch (SQLException e) {
             log.error("Error retrieving URLs: {}", e.getMessage());
-            ctx.sessionAttribute("flash", "Ошибка при получении списка URL");
-            ctx.sessionAttribute("flashType", "danger");
-            log.info("GET /urls: Set flash: {}, flashType: {}",
-                    ctx.sessionAttribute("flash"), ctx.sessionAttribute("flashType"));
+            Flash.set(ctx, "Ошибка при получении списка URL", "danger");
             ctx.redirect(NamedRoutes.rootPath());
         }
     }
@@ -133,63 +142,83 @@ public class UrlsController {
             id = ctx.pathParamAsClass("id", Long.class).get();
         } catch (Exception e) {
             log.error("Invalid ID format: {}", ctx.pathParam("id"), e);
-            ctx.sessionAttribute("flash", "Неверный ID");
-            ctx.sessionAttribute("flashType", "danger");
-            log.info("GET /urls/{id}: Set flash: {}, flashType: {}",
-                    ctx.sessionAttribute("flash"), ctx.sessionAttribute("flashType"));
+            Flash.set(ctx, "Неверный ID", "danger");
             ctx.redirect(NamedRoutes.urlsPath());
             return;
         }
         Optional<Url> url;
         try {
+            if (!Flash.isPending(ctx) && isShowNotModified(ctx, id)) {
+                return;
+            }
             url = urlRepository.findById(id);
             if (url.isEmpty()) {
                 log.warn("URL not found for id: {}", id);
-                ctx.sessionAttribute("flash", "URL не найден");
-                ctx.sessionAttribute("flashType", "danger");
-                log.info("GET /urls/{id}: Set flash: {}, flashType: {}",
-                        ctx.sessionAttribute("flash"), ctx.sessionAttribute("flashType"));
+                Flash.set(ctx, "URL не найден", "danger");
                 ctx.redirect(NamedRoutes.urlsPath());
                 return;
             }
         } catch (SQLException e) {
             log.error("Database error finding URL by id: {}", id, e);
-            ctx.sessionAttribute("flash", "Ошибка при получении URL");
-            ctx.sessionAttribute("flashType", "danger");
-            log.info("GET /urls/{id}: Set flash: {}, flashType: {}",
-                    ctx.sessionAttribute("flash"), ctx.sessionAttribute("flashType"));
+            Flash.set(ctx, "Ошибка при получении URL", "danger");
             ctx.redirect(NamedRoutes.urlsPath());
             return;
         }
 
-        List<UrlCheck> checks;
+        int limit = Math.min(Math.max(ctx.queryParamAsClass("limit", Integer.class)
+                .getOrDefault(DEFAULT_HISTORY_SIZE), 1), MAX_PAGE_SIZE);
+        CheckCursor before = null;
+        String beforeParam = ctx.queryParam("before");
+        if (beforeParam != null && !beforeParam.isBlank()) {
+            try {
+                before = CheckCursor.parse(beforeParam);
+            } catch (IllegalArgumentException e) {
+                log.warn("Ignoring invalid check history cursor: {}", beforeParam);
+            }
+        }
+        Page<UrlCheck> checks;
+        List<DailyCheckRollup> rollups;
         try {
-            checks = urlCheckRepository.findByUrlId(id);
+            checks = urlCheckRepository.findPageByUrlId(id, before, limit);
+            rollups = urlCheckRepository.findDailyRollups(id, ROLLUP_DAYS);
         } catch (SQLException e) {
             log.error("Error retrieving checks for URL {}: {}", id, e);
-            checks = Collections.emptyList();
+            checks = new Page<>(Collections.emptyList(), false, false);
+            rollups = Collections.emptyList();
         }
-        String flash = ctx.consumeSessionAttribute("flash");
-        String flashType = ctx.consumeSessionAttribute("flashType");
-        log.info("GET /urls/{}: Consumed flash: {}, flashType: {}", id, flash, flashType);
+        Flash.Message flash = Flash.consume(ctx);
+        log.info("GET /urls/{}: Consumed flash: {}", id, flash);
         ctx.render("urls/show.jte", Map.of(
                 "url", url.get(),
                 "checks", checks,
-                "flash", flash != null ? flash : "",
-                "flashType", flashType != null ? flashType : "info"
+                "limit", limit,
+                "rollups", rollups,
+                "trend", LatencyTrend.of(checks.getItems()),
+                "pending", checkQueue.isPending(id),
+                "flash", flash != null ? flash.text() : "",
+                "flashType", flash != null ? flash.type() : "info"
         ));
     }
 
+    // The page changes when a check is saved or rolled up, and while one is pending; the last-check id comes
+    // from the database, so checks saved by other processes are seen too
+    private static boolean isShowNotModified(Context ctx, Long id) throws SQLException {
+        Optional<Long> lastCheckId = urlRepository.findLastCheckId(id);
+        if (lastCheckId.isEmpty()) {
+            return false;
+        }
+        String version = "url-" + id + "-" + lastCheckId.get() + "-" + DataVersion.instanceId()
+                + "-" + DataVersion.rollups() + (checkQueue.isPending(id) ? "-pending" : "");
+        return ConditionalGet.notModified(ctx, version);
+    }
+
     public static void check(Context ctx) {
         Long id;
         try {
             id = ctx.pathParamAsClass("id", Long.class).get();
         } catch (Exception e) {
             log.error("Invalid ID format: {}", ctx.pathParam("id"), e);
-            ctx.sessionAttribute("flash", "Неверный ID");
-            ctx.sessionAttribute("flashType", "danger");
-            log.info("POST /urls/{id}/checks: Set flash: {}, flashType: {}",
-                    ctx.sessionAttribute("flash"), ctx.sessionAttribute("flashType"));
+            Flash.set(ctx, "Неверный ID", "danger");
             ctx.redirect(NamedRoutes.urlsPath());
             return;
         }
@@ -199,35 +228,29 @@ public class UrlsController {
             url = urlRepository.findById(id);
             if (url.isEmpty()) {
                 log.warn("URL not found for id: {}", id);
-                ctx.sessionAttribute("flash", "URL не найден");
-                ctx.sessionAttribute("flashType", "danger");
-                log.info("POST /urls/{id}/checks: Set flash: {}, flashType: {}",
-                        ctx.sessionAttribute("flash"), ctx.sessionAttribute("flashType"));
+                Flash.set(ctx, "URL не найден", "danger");
                 ctx.redirect(NamedRoutes.urlsPath());
                 return;
             }
         } catch (SQLException e) {
             log.error("Database error finding URL by id: {}", id, e);
-            ctx.sessionAttribute("flash", "Ошибка при получении URL");
-            ctx.sessionAttribute("flashType", "danger");
-            log.info("POST /urls/{id}/checks: Set flash: {}, flashType: {}",
-                    ctx.sessionAttribute("flash"), ctx.sessionAttribute("flashType"));
+            Flash.set(ctx, "Ошибка при получении URL", "danger");
             ctx.redirect(NamedRoutes.urlsPath());
             return;
         }
 
-        try {
-            UrlCheck check = urlCheckService.checkUrl(url.get());
-            ctx.sessionAttribute("flash", "Проверка успешно выполнена");
-            ctx.sessionAttribute("flashType", "success");
-            log.info("POST /urls/{id}/checks: Set flash: {}, flashType: {}",
-                    ctx.sessionAttribute("flash"), ctx.sessionAttribute("flashType"));
-        } catch (Exception e) {
-            log.error("Error during check for URL {}: {}", url.get().getName(), e.getMessage());
-            ctx.sessionAttribute("flash", "Ошибка проверки");
-            ctx.sessionAttribute("flashType", "danger");
-            log.info("POST /urls/{id}/checks: Set flash: {}, flashType: {}",
-                    ctx.sessionAttribute("flash"), ctx.sessionAttribute("flashType"));
+        CheckQueue.SubmitResult result = checkQueue.submit(url.get());
+        switch (result) {
+            case QUEUED -> {
+                Flash.set(ctx, "Проверка запущена", "info");
+            }
+            case ALREADY_PENDING -> {
+                Flash.set(ctx, "Проверка уже выполняется", "info");
+            }
+            default -> {
+                log.warn("Check queue rejected check for URL {}", url.get().getName());
+                Flash.set(ctx, "Слишком много проверок в очереди, попробуйте позже", "danger");
+            }
         }
 
         ctx.redirect(NamedRoutes.urlPath(id));
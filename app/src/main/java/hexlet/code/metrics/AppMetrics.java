@@ -0,0 +1,194 @@
+package hexlet.code.metrics;
+
+import hexlet.code.model.CheckOutcome;
+import io.javalin.http.Context;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.prometheusmetrics.PrometheusConfig;
+import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Application-wide Micrometer registry exported in the Prometheus text format on /metrics.
+ * Meters are looked up by name and tags on every recording, which Micrometer resolves from a concurrent map,
+ * so recording stays cheap enough to keep on under load.
+ */
+public final class AppMetrics {
+    public static final String PROMETHEUS_CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final String REQUEST_START_ATTRIBUTE = "metrics.requestStart";
+    private static final String DB_QUERY = "db.query";
+    private static final String DB_QUERY_DESCRIPTION = "Repository query latency by method";
+    private static final String DB_UPDATE = "db.update";
+    private static final String DB_UPDATE_DESCRIPTION = "Repository write latency by method";
+    private static final PrometheusMeterRegistry REGISTRY = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+
+    private AppMetrics() {
+    }
+
+    public static PrometheusMeterRegistry registry() {
+        return REGISTRY;
+    }
+
+    public static String scrape() {
+        return REGISTRY.scrape();
+    }
+
+    public static void startRequest(Context ctx) {
+        ctx.attribute(REQUEST_START_ATTRIBUTE, System.nanoTime());
+    }
+
+    public static void finishRequest(Context ctx) {
+        Long startedAt = ctx.attribute(REQUEST_START_ATTRIBUTE);
+        if (startedAt == null) {
+            return;
+        }
+        Timer.builder("http.server.requests")
+                .description("HTTP request latency by route")
+                .tag("method", ctx.method().name())
+                .tag("route", routeOf(ctx))
+                .tag("status", Integer.toString(ctx.statusCode()))
+                .publishPercentileHistogram()
+                .register(REGISTRY)
+                .record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+    }
+
+    public static void recordCheckPhase(String phase, long nanos) {
+        Timer.builder("url.check.phase")
+                .description("Duration of URL check phases")
+                .tag("phase", phase)
+                .publishPercentileHistogram()
+                .register(REGISTRY)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public static void countCheckOutcome(CheckOutcome outcome, int statusCode) {
+        Counter.builder("url.check.outcomes")
+                .description("URL check results by outcome and response status code, 0 when there was no response")
+                .tag("outcome", outcome.name())
+                .tag("status", Integer.toString(statusCode))
+                .register(REGISTRY)
+                .increment();
+    }
+
+    public static void countCheckReuse(String reason) {
+        Counter.builder("url.check.reused")
+                .description("URL checks answered without a fetch of their own, by reason")
+                .tag("reason", reason)
+                .register(REGISTRY)
+                .increment();
+    }
+
+    /**
+     * Registers a gauge that reads the given object. The registry keeps the first gauge of a name, so one left
+     * behind by an earlier app of this process is removed first instead of reporting that app's object.
+     * @param name the gauge name
+     * @param description what the gauge shows
+     * @param object the object to read
+     * @param value reads the gauge value from the object
+     * @param <T> the object type
+     * @return the gauge, to be passed to {@link #removeGauge(Gauge)} once the object is no longer in use
+     */
+    public static <T> Gauge registerGauge(String name, String description, T object, ToDoubleFunction<T> value) {
+        Gauge previous = REGISTRY.find(name).gauge();
+        if (previous != null) {
+            REGISTRY.remove(previous);
+        }
+        return Gauge.builder(name, object, value)
+                .description(description)
+                .register(REGISTRY);
+    }
+
+    public static void removeGauge(Gauge gauge) {
+        REGISTRY.remove(gauge);
+    }
+
+    /**
+     * Runs a repository query and records its duration under the given method name.
+     * @param method the repository method, e.g. {@code UrlRepository.findById}
+     * @param query the query to run
+     * @param <T> the query result type
+     * @return the query result
+     * @throws SQLException if the query fails
+     */
+    public static <T> T timeQuery(String method, SqlQuery<T> query) throws SQLException {
+        return time(DB_QUERY, DB_QUERY_DESCRIPTION, method, query);
+    }
+
+    /**
+     * Runs a repository query that passes its rows to a callback instead of returning them and records its
+     * duration, callback included, among the query timings under the given method name.
+     * @param method the repository method, e.g. {@code UrlCheckRepository.streamByUrlId}
+     * @param query the query to run
+     * @throws SQLException if the query fails
+     */
+    public static void timeStreamedQuery(String method, SqlUpdate query) throws SQLException {
+        time(DB_QUERY, DB_QUERY_DESCRIPTION, method, () -> {
+            query.run();
+            return null;
+        });
+    }
+
+    /**
+     * Runs a repository statement that writes data and records its duration under the given method name.
+     * @param method the repository method, e.g. {@code UrlRepository.save}
+     * @param update the statement to run
+     * @param <T> the statement result type
+     * @return the statement result
+     * @throws SQLException if the statement fails
+     */
+    public static <T> T timeUpdate(String method, SqlQuery<T> update) throws SQLException {
+        return time(DB_UPDATE, DB_UPDATE_DESCRIPTION, method, update);
+    }
+
+    /**
+     * Runs a repository statement that writes data and returns nothing and records its duration under the given
+     * method name.
+     * @param method the repository method, e.g. {@code UrlCheckRepository.save}
+     * @param update the statement to run
+     * @throws SQLException if the statement fails
+     */
+    public static void timeUpdate(String method, SqlUpdate update) throws SQLException {
+        time(DB_UPDATE, DB_UPDATE_DESCRIPTION, method, () -> {
+            update.run();
+            return null;
+        });
+    }
+
+    private static <T> T time(String name, String description, String method, SqlQuery<T> statement)
+            throws SQLException {
+        long startedAt = System.nanoTime();
+        try {
+            return statement.run();
+        } finally {
+            Timer.builder(name)
+                    .description(description)
+                    .tag("method", method)
+                    .register(REGISTRY)
+                    .record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private static String routeOf(Context ctx) {
+        try {
+            String path = ctx.endpointHandlerPath();
+            return path == null || path.isEmpty() ? "unmatched" : path;
+        } catch (RuntimeException e) {
+            return "unmatched";
+        }
+    }
+
+    @FunctionalInterface
+    public interface SqlQuery<T> {
+        T run() throws SQLException;
+    }
+
+    @FunctionalInterface
+    public interface SqlUpdate {
+        void run() throws SQLException;
+    }
+}
@@ -0,0 +1,41 @@
+package hexlet.code.model;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Position in a URL's check history, which is ordered by creation time and then id, newest first.
+ * In links it is written as {@code <ISO-8601 instant>,<id>}.
+ * @param createdAt the creation time of the check the position refers to
+ * @param id the id of the check the position refers to
+ */
+public record CheckCursor(Timestamp createdAt, long id) {
+    public static CheckCursor of(UrlCheck check) {
+        return new CheckCursor(check.getCreatedAt(), check.getId());
+    }
+
+    /**
+     * Parses a cursor written by {@link #toString()}.
+     * @param value the cursor text
+     * @return the cursor
+     * @throws IllegalArgumentException if the text is not a valid cursor
+     */
+    public static CheckCursor parse(String value) {
+        int comma = value.lastIndexOf(',');
+        if (comma < 0) {
+            throw new IllegalArgumentException("Invalid check cursor: " + value);
+        }
+        try {
+            Instant createdAt = Instant.parse(value.substring(0, comma));
+            return new CheckCursor(Timestamp.from(createdAt), Long.parseLong(value.substring(comma + 1)));
+        } catch (DateTimeParseException | NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid check cursor: " + value, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return createdAt.toInstant() + "," + id;
+    }
+}
@@ -0,0 +1,24 @@
+package hexlet.code.model;
+
+/**
+ * How a URL check ended. Checks stored before outcomes were recorded have none.
+ */
+public enum CheckOutcome {
+    /** The host answered; the status code is the response status. */
+    OK,
+    /** The request failed, e.g. with a DNS, connect, TLS or timeout error; the status code is 0. */
+    FAILED,
+    /** The host was not contacted because it recently failed; the status code is 0. */
+    CIRCUIT_OPEN,
+    /** The page answered 304 Not Modified or its fields hash as before; the status code is the previous one. */
+    UNCHANGED;
+
+    /**
+     * Returns the outcome stored in a url_checks row.
+     * @param value the column value, may be null
+     * @return the outcome, or null for checks stored without one
+     */
+    public static CheckOutcome fromColumn(String value) {
+        return value == null ? null : valueOf(value);
+    }
+}
@@ -0,0 +1,46 @@
+package hexlet.code.model;
+
+import lombok.Getter;
+
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Aggregate of one URL's checks for one day, kept after the raw checks have aged out of url_checks.
+ */
+@Getter
+public class DailyCheckRollup {
+    private final Long urlId;
+    private final LocalDate day;
+    private final Map<Integer, Integer> statusCounts = new TreeMap<>();
+
+    public DailyCheckRollup(Long urlId, LocalDate day) {
+        this.urlId = urlId;
+        this.day = day;
+    }
+
+    public void add(int statusCode, int count) {
+        statusCounts.merge(statusCode, count, Integer::sum);
+    }
+
+    public int getTotal() {
+        return statusCounts.values().stream().mapToInt(Integer::intValue).sum();
+    }
+
+    /**
+     * Returns the share of checks that got a 2xx or 3xx response.
+     * @return the success ratio between 0 and 1
+     */
+    public double getSuccessRatio() {
+        int total = getTotal();
+        if (total == 0) {
+            return 0;
+        }
+        int successful = statusCounts.entrySet().stream()
+                .filter(entry -> entry.getKey() >= 200 && entry.getKey() < 400)
+                .mapToInt(Map.Entry::getValue)
+                .sum();
+        return (double) successful / total;
+    }
+}
@@ -0,0 +1,68 @@
+package hexlet.code.model;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Total latency of the checks on one history page, oldest first, scaled to the points of an SVG sparkline.
+ * Checks without a measured latency, such as failed ones, are left out.
+ */
+@Getter
+public final class LatencyTrend {
+    public static final int WIDTH = 600;
+    public static final int HEIGHT = 80;
+    private static final int PADDING = 4;
+
+    private final int samples;
+    private final int minMillis;
+    private final int maxMillis;
+    private final int lastMillis;
+    private final String points;
+
+    private LatencyTrend(List<Integer> latencies) {
+        this.samples = latencies.size();
+        this.minMillis = latencies.stream().mapToInt(Integer::intValue).min().orElse(0);
+        this.maxMillis = latencies.stream().mapToInt(Integer::intValue).max().orElse(0);
+        this.lastMillis = latencies.isEmpty() ? 0 : latencies.get(latencies.size() - 1);
+        this.points = toPoints(latencies);
+    }
+
+    /**
+     * Builds the trend of a page of checks.
+     * @param newestFirst the checks as listed on the page, newest first
+     * @return the trend, oldest first
+     */
+    public static LatencyTrend of(List<UrlCheck> newestFirst) {
+        List<Integer> latencies = new ArrayList<>();
+        for (int i = newestFirst.size() - 1; i >= 0; i--) {
+            Integer total = newestFirst.get(i).getTotalMillis();
+            if (total != null) {
+                latencies.add(total);
+            }
+        }
+        return new LatencyTrend(latencies);
+    }
+
+    public boolean isEmpty() {
+        return samples == 0;
+    }
+
+    // The y axis runs from 0 ms at the bottom to the slowest check at the top
+    private String toPoints(List<Integer> latencies) {
+        int size = latencies.size();
+        double scale = maxMillis > 0 ? (double) (HEIGHT - 2 * PADDING) / maxMillis : 0;
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            double x = size == 1 ? WIDTH / 2.0 : PADDING + (double) i * (WIDTH - 2 * PADDING) / (size - 1);
+            double y = HEIGHT - PADDING - latencies.get(i) * scale;
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(String.format(Locale.ROOT, "%.1f,%.1f", x, y));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,42 @@
+package hexlet.code.model;
+
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * One keyset-paginated slice of rows plus flags telling whether neighbouring slices exist.
+ * @param <T> the row type
+ */
+public class Page<T> {
+    @Getter
+    private final List<T> items;
+    private final boolean hasPrevious;
+    private final boolean hasNext;
+
+    public Page(List<T> items, boolean hasPrevious, boolean hasNext) {
+        this.items = items;
+        this.hasPrevious = hasPrevious;
+        this.hasNext = hasNext;
+    }
+
+    public boolean hasPrevious() {
+        return hasPrevious;
+    }
+
+    public boolean hasNext() {
+        return hasNext;
+    }
+
+    public boolean isEmpty() {
+        return items.isEmpty();
+    }
+
+    public T getFirst() {
+        return items.get(0);
+    }
+
+    public T getLast() {
+        return items.get(items.size() - 1);
+    }
+}
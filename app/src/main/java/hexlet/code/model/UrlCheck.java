@@ -16,6 +16,15 @@ public class UrlCheck {
     private String h1;
     private String description;
     private Timestamp createdAt;
+    private CheckOutcome outcome;
+    private String etag;
+    private String lastModified;
+    private String contentHash;
+    private Integer ttfbMillis;
+    private Integer totalMillis;
+    private Long responseBytes;
+    private Integer redirectCount;
+    private String protocol;
 
     public UrlCheck(Long urlId, int statusCode, String title, String h1, String description, Timestamp createdAt) {
         this.urlId = urlId;
@@ -0,0 +1,29 @@
+package hexlet.code.model;
+
+import lombok.Getter;
+import java.sql.Timestamp;
+
+/**
+ * Read model for the URLs list: a URL together with the status and time of its newest check.
+ */
+@Getter
+public class UrlWithLastCheck {
+    private final Long id;
+    private final String name;
+    private final Timestamp createdAt;
+    private final Integer lastCheckStatusCode;
+    private final Timestamp lastCheckCreatedAt;
+
+    public UrlWithLastCheck(Long id, String name, Timestamp createdAt,
+                            Integer lastCheckStatusCode, Timestamp lastCheckCreatedAt) {
+        this.id = id;
+        this.name = name;
+        this.createdAt = createdAt;
+        this.lastCheckStatusCode = lastCheckStatusCode;
+        this.lastCheckCreatedAt = lastCheckCreatedAt;
+    }
+
+    public boolean hasLastCheck() {
+        return lastCheckCreatedAt != null;
+    }
+}
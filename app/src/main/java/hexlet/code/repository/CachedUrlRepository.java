@@ -0,0 +1,117 @@
+package hexlet.code.repository;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import hexlet.code.AppConfig;
+import hexlet.code.metrics.AppMetrics;
+import hexlet.code.model.Url;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Optional;
+
+/**
+ * Read-through cache over {@link UrlRepository} for single-row lookups.
+ * Url rows are immutable after insert, so entries are never invalidated: they are populated on save and on
+ * the first successful lookup, and only leave the cache through size-based W-TinyLFU eviction.
+ * Misses are not cached, because a name that is absent now is usually saved right after the lookup.
+ * {@link Url} is mutable, so the cache keeps immutable snapshots and every hit returns a new object;
+ * a caller changing what it got cannot change what later callers see.
+ */
+public class CachedUrlRepository extends UrlRepository {
+    public static final int DEFAULT_MAX_SIZE = 10_000;
+
+    private final Cache<Long, Snapshot> byId;
+    private final Cache<String, Snapshot> byName;
+
+    public CachedUrlRepository(DataSource dataSource, int maxSize) {
+        super(dataSource);
+        this.byId = Caffeine.newBuilder().maximumSize(maxSize).recordStats().build();
+        this.byName = Caffeine.newBuilder().maximumSize(maxSize).recordStats().build();
+        CaffeineCacheMetrics.monitor(AppMetrics.registry(), byId, "urls.by_id");
+        CaffeineCacheMetrics.monitor(AppMetrics.registry(), byName, "urls.by_name");
+    }
+
+    /**
+     * Creates a cached repository sized from the URL_CACHE_MAX_SIZE environment variable.
+     * @param dataSource the data source to read through to
+     * @return the repository
+     */
+    public static CachedUrlRepository fromEnv(DataSource dataSource) {
+        return new CachedUrlRepository(dataSource, AppConfig.getInt("URL_CACHE_MAX_SIZE", DEFAULT_MAX_SIZE));
+    }
+
+    @Override
+    public Url save(Url url) throws SQLException {
+        Url saved = super.save(url);
+        if (saved.getId() != null) {
+            put(saved);
+        }
+        return saved;
+    }
+
+    @Override
+    public boolean saveIfAbsent(Url url) throws SQLException {
+        if (byName.getIfPresent(url.getName()) != null) {
+            return false;
+        }
+        boolean inserted = super.saveIfAbsent(url);
+        if (inserted && url.getId() != null) {
+            put(url);
+        }
+        return inserted;
+    }
+
+    @Override
+    public Optional<Url> findById(Long id) throws SQLException {
+        Snapshot cached = byId.getIfPresent(id);
+        if (cached != null) {
+            return Optional.of(cached.toUrl());
+        }
+        Optional<Url> url = super.findById(id);
+        url.ifPresent(this::put);
+        return url;
+    }
+
+    @Override
+    public Optional<Url> findByName(String name) throws SQLException {
+        Snapshot cached = byName.getIfPresent(name);
+        if (cached != null) {
+            return Optional.of(cached.toUrl());
+        }
+        Optional<Url> url = super.findByName(name);
+        url.ifPresent(this::put);
+        return url;
+    }
+
+    public CacheStats getIdStats() {
+        return byId.stats();
+    }
+
+    public CacheStats getNameStats() {
+        return byName.stats();
+    }
+
+    private void put(Url url) {
+        Snapshot snapshot = Snapshot.of(url);
+        byId.put(snapshot.id(), snapshot);
+        byName.put(snapshot.name(), snapshot);
+    }
+
+    private record Snapshot(Long id, String name, Instant createdAt) {
+        private static Snapshot of(Url url) {
+            Timestamp createdAt = url.getCreatedAt();
+            return new Snapshot(url.getId(), url.getName(), createdAt != null ? createdAt.toInstant() : null);
+        }
+
+        private Url toUrl() {
+            Url url = new Url(name, createdAt != null ? Timestamp.from(createdAt) : null);
+            url.setId(id);
+            return url;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package hexlet.code.repository;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide change counter bumped by the repositories after check roll-ups, used as a cheap version marker
+ * for conditional GETs. The counter only sees writes made through this process, so version tags must
+ * also carry {@link #instanceId()}: a restart or another instance then produces different tags instead of
+ * reusing stale ones.
+ */
+public final class DataVersion {
+    private static final String INSTANCE_ID = Long.toHexString(UUID.randomUUID().getMostSignificantBits());
+    private static final AtomicLong ROLLUPS = new AtomicLong();
+
+    private DataVersion() {
+    }
+
+    public static String instanceId() {
+        return INSTANCE_ID;
+    }
+
+    /**
+     * Returns the version of the check history, which changes whenever checks are rolled up.
+     * @return the current version
+     */
+    public static long rollups() {
+        return ROLLUPS.get();
+    }
+
+    static void rollupsChanged() {
+        ROLLUPS.incrementAndGet();
+    }
+}
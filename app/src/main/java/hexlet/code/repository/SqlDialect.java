@@ -0,0 +1,16 @@
+package hexlet.code.repository;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Tells the supported databases apart for the few statements whose syntax differs between PostgreSQL and H2.
+ */
+final class SqlDialect {
+    private SqlDialect() {
+    }
+
+    static boolean isPostgres(Connection conn) throws SQLException {
+        return "PostgreSQL".equals(conn.getMetaData().getDatabaseProductName());
+    }
+}
@@ -1,48 +1,130 @@
 package hexlet.code.repository;
 
+import hexlet.code.metrics.AppMetrics;
+import hexlet.code.model.CheckCursor;
+import hexlet.code.model.CheckOutcome;
+import hexlet.code.model.DailyCheckRollup;
+import hexlet.code.model.Page;
 import hexlet.code.model.UrlCheck;
 
 import javax.sql.DataSource;
 import java.sql.Connection;
+import java.sql.Date;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 public class UrlCheckRepository {
     private final DataSource dataSource;
 
+    private static final int STREAM_FETCH_SIZE = 500;
+    // Width of the title and h1 columns; longer values are cut so one page cannot fail a whole batch
+    private static final int TEXT_COLUMN_LENGTH = 255;
+    private static final String INSERT_SQL =
+            "INSERT INTO url_checks (url_id, status_code, title, h1, description, created_at, outcome, "
+                    + "etag, last_modified, content_hash, ttfb_ms, total_ms, response_bytes, redirect_count, "
+                    + "protocol) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    // Only moves the summary forward, so checks saved out of order cannot overwrite a newer one
+    private static final String UPDATE_LAST_CHECK_SQL =
+            "UPDATE urls SET last_check_id = ?, last_check_status_code = ?, last_check_created_at = ? "
+                    + "WHERE id = ? AND (last_check_id IS NULL OR last_check_created_at < ? "
+                    + "OR (last_check_created_at = ? AND last_check_id < ?))";
+
     public UrlCheckRepository(DataSource dataSource) {
         this.dataSource = dataSource;
     }
 
     /**
-     * Saves the URL check to the database.
+     * Saves the URL check to the database and, in the same transaction, updates the last-check summary
+     * columns on its URL if this check is newer than the one recorded there.
+     * A title or h1 longer than its column is cut to fit.
      * This method is not intended for overriding; for custom save logic,
      * extend this class and use composition to modify behavior safely.
      * @param urlCheck the URL check to save
      * @throws SQLException if a database error occurs
      */
     public void save(UrlCheck urlCheck) throws SQLException {
-        String sql = "INSERT INTO url_checks (url_id, status_code, title, h1, description, created_at) "
-                + "VALUES (?, ?, ?, ?, ?, ?)";
-        try (Connection conn = dataSource.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql, PreparedStatement.RETURN_GENERATED_KEYS)) {
-            stmt.setLong(1, urlCheck.getUrlId());
-            stmt.setInt(2, urlCheck.getStatusCode());
-            stmt.setString(3, urlCheck.getTitle());
-            stmt.setString(4, urlCheck.getH1());
-            stmt.setString(5, urlCheck.getDescription());
-            stmt.setTimestamp(6, urlCheck.getCreatedAt());
-            stmt.executeUpdate();
-            try (ResultSet generatedKeys = stmt.getGeneratedKeys()) {
-                if (generatedKeys.next()) {
-                    urlCheck.setId(generatedKeys.getLong(1));
+        AppMetrics.timeUpdate("UrlCheckRepository.save", () -> {
+            try (Connection conn = dataSource.getConnection()) {
+                conn.setAutoCommit(false);
+                try (PreparedStatement insert = conn.prepareStatement(INSERT_SQL, new String[] {"id"});
+                     PreparedStatement update = conn.prepareStatement(UPDATE_LAST_CHECK_SQL)) {
+                    bindInsert(insert, urlCheck);
+                    insert.executeUpdate();
+                    try (ResultSet generatedKeys = insert.getGeneratedKeys()) {
+                        if (!generatedKeys.next()) {
+                            throw new SQLException("No generated key returned for the inserted check");
+                        }
+                        urlCheck.setId(generatedKeys.getLong(1));
+                    }
+                    bindLastCheckUpdate(update, urlCheck);
+                    update.executeUpdate();
+                    conn.commit();
+                } catch (Exception e) {
+                    conn.rollback();
+                    throw e;
                 }
             }
-        }
+        });
+    }
+
+    /**
+     * Saves the URL checks to the database as a single JDBC batch in one transaction,
+     * updating the last-check summary columns of their URLs in the same transaction.
+     * Titles and h1s longer than their columns are cut to fit, so one long page does not fail the batch.
+     * This method is not intended for overriding; for custom save logic,
+     * extend this class and use composition to modify behavior safely.
+     * @param urlChecks the URL checks to save
+     * @throws SQLException if a database error occurs
+     */
+    public void saveAll(Collection<UrlCheck> urlChecks) throws SQLException {
+        AppMetrics.timeUpdate("UrlCheckRepository.saveAll", () -> {
+            if (urlChecks.isEmpty()) {
+                return;
+            }
+            try (Connection conn = dataSource.getConnection()) {
+                conn.setAutoCommit(false);
+                try (PreparedStatement insert = conn.prepareStatement(INSERT_SQL, new String[] {"id"});
+                     PreparedStatement update = conn.prepareStatement(UPDATE_LAST_CHECK_SQL)) {
+                    for (UrlCheck urlCheck : urlChecks) {
+                        bindInsert(insert, urlCheck);
+                        insert.addBatch();
+                    }
+                    insert.executeBatch();
+                    // the summary update needs every id, so a driver returning fewer keys must fail the batch
+                    try (ResultSet generatedKeys = insert.getGeneratedKeys()) {
+                        int keys = 0;
+                        for (UrlCheck urlCheck : urlChecks) {
+                            if (!generatedKeys.next()) {
+                                throw new SQLException("Expected " + urlChecks.size()
+                                        + " generated keys for the batch but got " + keys);
+                            }
+                            urlCheck.setId(generatedKeys.getLong(1));
+                            keys++;
+                        }
+                    }
+                    for (UrlCheck urlCheck : urlChecks) {
+                        bindLastCheckUpdate(update, urlCheck);
+                        update.addBatch();
+                    }
+                    update.executeBatch();
+                    conn.commit();
+                } catch (Exception e) {
+                    conn.rollback();
+                    throw e;
+                }
+            }
+        });
     }
 
     /**
@@ -54,26 +136,107 @@ public class UrlCheckRepository {
      * @throws SQLException if a database error occurs
      */
     public List<UrlCheck> findByUrlId(Long urlId) throws SQLException {
-        String sql = "SELECT * FROM url_checks WHERE url_id = ? ORDER BY created_at DESC";
-        List<UrlCheck> checks = new ArrayList<>();
-        try (Connection conn = dataSource.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setLong(1, urlId);
-            try (ResultSet rs = stmt.executeQuery()) {
-                while (rs.next()) {
-                    UrlCheck check = new UrlCheck();
-                    check.setId(rs.getLong("id"));
-                    check.setUrlId(rs.getLong("url_id"));
-                    check.setStatusCode(rs.getInt("status_code"));
-                    check.setTitle(rs.getString("title"));
-                    check.setH1(rs.getString("h1"));
-                    check.setDescription(rs.getString("description"));
-                    check.setCreatedAt(rs.getTimestamp("created_at"));
-                    checks.add(check);
+        return AppMetrics.timeQuery("UrlCheckRepository.findByUrlId", () -> {
+            String sql = "SELECT * FROM url_checks WHERE url_id = ? ORDER BY created_at DESC";
+            List<UrlCheck> checks = new ArrayList<>();
+            try (Connection conn = dataSource.getConnection();
+                 PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setLong(1, urlId);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        checks.add(mapUrlCheck(rs));
+                    }
                 }
             }
-        }
-        return checks;
+            return checks;
+        });
+    }
+
+    /**
+     * Finds one page of the URL's check history, newest first, using keyset pagination on (created_at, id)
+     * so that the cost of a page does not depend on how deep into the history it is.
+     * This method is not intended for overriding; for custom query logic,
+     * extend this class and use composition to modify behavior safely.
+     * @param urlId the ID of the URL
+     * @param before the position the page starts right after, or null for the newest checks
+     * @param limit the maximum number of checks on the page
+     * @return the page of checks
+     * @throws SQLException if a database error occurs
+     */
+    public Page<UrlCheck> findPageByUrlId(Long urlId, CheckCursor before, int limit) throws SQLException {
+        return AppMetrics.timeQuery("UrlCheckRepository.findPageByUrlId", () -> {
+            String sql = "SELECT * FROM url_checks WHERE url_id = ? "
+                    + (before != null ? "AND (created_at < ? OR (created_at = ? AND id < ?)) " : "")
+                    + "ORDER BY created_at DESC, id DESC LIMIT ?";
+            List<UrlCheck> checks = new ArrayList<>(limit + 1);
+            try (Connection conn = dataSource.getConnection();
+                 PreparedStatement stmt = conn.prepareStatement(sql)) {
+                int index = 1;
+                stmt.setLong(index++, urlId);
+                if (before != null) {
+                    stmt.setTimestamp(index++, before.createdAt());
+                    stmt.setTimestamp(index++, before.createdAt());
+                    stmt.setLong(index++, before.id());
+                }
+                stmt.setInt(index, limit + 1);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        checks.add(mapUrlCheck(rs));
+                    }
+                }
+            }
+            boolean hasMore = checks.size() > limit;
+            if (hasMore) {
+                checks.remove(checks.size() - 1);
+            }
+            return new Page<>(checks, before != null, hasMore);
+        });
+    }
+
+    /**
+     * Passes the URL's checks to the consumer one row at a time, newest first, without collecting them;
+     * the driver fetches rows in chunks, so memory use does not depend on the history length.
+     * This method is not intended for overriding; for custom query logic,
+     * extend this class and use composition to modify behavior safely.
+     * @param urlId the ID of the URL
+     * @param before only checks older than this position are returned, or null for the newest checks
+     * @param limit the maximum number of checks, or null for all of them
+     * @param consumer receives each check
+     * @throws SQLException if a database error occurs
+     */
+    public void streamByUrlId(Long urlId, CheckCursor before, Integer limit, Consumer<UrlCheck> consumer)
+            throws SQLException {
+        AppMetrics.timeStreamedQuery("UrlCheckRepository.streamByUrlId", () -> {
+            String sql = "SELECT * FROM url_checks WHERE url_id = ? "
+                    + (before != null ? "AND (created_at < ? OR (created_at = ? AND id < ?)) " : "")
+                    + "ORDER BY created_at DESC, id DESC"
+                    + (limit != null ? " LIMIT ?" : "");
+            try (Connection conn = dataSource.getConnection()) {
+                // PostgreSQL only honours the fetch size inside a transaction
+                conn.setAutoCommit(false);
+                try (PreparedStatement stmt = conn.prepareStatement(sql,
+                        ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                    stmt.setFetchSize(STREAM_FETCH_SIZE);
+                    int index = 1;
+                    stmt.setLong(index++, urlId);
+                    if (before != null) {
+                        stmt.setTimestamp(index++, before.createdAt());
+                        stmt.setTimestamp(index++, before.createdAt());
+                        stmt.setLong(index++, before.id());
+                    }
+                    if (limit != null) {
+                        stmt.setInt(index, limit);
+                    }
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            consumer.accept(mapUrlCheck(rs));
+                        }
+                    }
+                } finally {
+                    conn.rollback();
+                }
+            }
+        });
     }
 
     /**
@@ -85,24 +248,213 @@ public class UrlCheckRepository {
      * @throws SQLException if a database error occurs
      */
     public Optional<UrlCheck> findLastCheckByUrlId(Long urlId) throws SQLException {
-        String sql = "SELECT * FROM url_checks WHERE url_id = ? ORDER BY created_at DESC LIMIT 1";
-        try (Connection conn = dataSource.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setLong(1, urlId);
+        return AppMetrics.timeQuery("UrlCheckRepository.findLastCheckByUrlId", () -> {
+            String sql = "SELECT * FROM url_checks WHERE url_id = ? ORDER BY created_at DESC LIMIT 1";
+            try (Connection conn = dataSource.getConnection();
+                 PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setLong(1, urlId);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (rs.next()) {
+                        return Optional.of(mapUrlCheck(rs));
+                    }
+                }
+            }
+            return Optional.empty();
+        });
+    }
+
+    /**
+     * Moves up to {@code batchSize} of the oldest checks created before the cutoff out of url_checks and adds them
+     * to the per-URL daily roll-ups, all in one short transaction. Only rows this call actually deleted are
+     * counted, so concurrent runs cannot count a check twice.
+     * This method is not intended for overriding; for custom retention logic,
+     * extend this class and use composition to modify behavior safely.
+     * @param cutoff checks created before this moment are rolled up
+     * @param batchSize the maximum number of checks to roll up
+     * @return the number of checks rolled up; less than {@code batchSize} means nothing older is left
+     * @throws SQLException if a database error occurs
+     */
+    public int rollUpOlderThan(Timestamp cutoff, int batchSize) throws SQLException {
+        return AppMetrics.timeUpdate("UrlCheckRepository.rollUpOlderThan", () -> {
+            try (Connection conn = dataSource.getConnection()) {
+                conn.setAutoCommit(false);
+                try {
+                    List<UrlCheck> expired = findExpired(conn, cutoff, batchSize);
+                    Map<DailyRollupKey, Integer> counts = new HashMap<>();
+                    try (PreparedStatement delete = conn.prepareStatement("DELETE FROM url_checks WHERE id = ?")) {
+                        for (UrlCheck check : expired) {
+                            delete.setLong(1, check.getId());
+                            delete.addBatch();
+                        }
+                        int[] deleted = delete.executeBatch();
+                        for (int i = 0; i < deleted.length; i++) {
+                            if (deleted[i] != 0) {
+                                UrlCheck check = expired.get(i);
+                                DailyRollupKey key = new DailyRollupKey(check.getUrlId(),
+                                        check.getCreatedAt().toLocalDateTime().toLocalDate(), check.getStatusCode());
+                                counts.merge(key, 1, Integer::sum);
+                            }
+                        }
+                    }
+                    addToRollups(conn, counts);
+                    conn.commit();
+                    if (!expired.isEmpty()) {
+                        DataVersion.rollupsChanged();
+                    }
+                    return expired.size();
+                } catch (SQLException e) {
+                    conn.rollback();
+                    throw e;
+                }
+            }
+        });
+    }
+
+    /**
+     * Finds the daily roll-ups of the URL's checks for its most recent {@code days} rolled-up days.
+     * This method is not intended for overriding; for custom query logic,
+     * extend this class and use composition to modify behavior safely.
+     * @param urlId the ID of the URL
+     * @param days the maximum number of days to return
+     * @return the roll-ups, newest day first
+     * @throws SQLException if a database error occurs
+     */
+    public List<DailyCheckRollup> findDailyRollups(Long urlId, int days) throws SQLException {
+        return AppMetrics.timeQuery("UrlCheckRepository.findDailyRollups", () -> {
+            String sql = "SELECT check_day, status_code, check_count FROM url_check_daily_rollups "
+                    + "WHERE url_id = ? AND check_day IN (SELECT DISTINCT check_day FROM url_check_daily_rollups "
+                    + "WHERE url_id = ? ORDER BY check_day DESC LIMIT ?) "
+                    + "ORDER BY check_day DESC, status_code";
+            List<DailyCheckRollup> rollups = new ArrayList<>();
+            try (Connection conn = dataSource.getConnection();
+                 PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setLong(1, urlId);
+                stmt.setLong(2, urlId);
+                stmt.setInt(3, days);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    DailyCheckRollup current = null;
+                    while (rs.next()) {
+                        LocalDate day = rs.getDate("check_day").toLocalDate();
+                        if (current == null || !current.getDay().equals(day)) {
+                            current = new DailyCheckRollup(urlId, day);
+                            rollups.add(current);
+                        }
+                        current.add(rs.getInt("status_code"), rs.getInt("check_count"));
+                    }
+                }
+            }
+            return rollups;
+        });
+    }
+
+    private static List<UrlCheck> findExpired(Connection conn, Timestamp cutoff, int batchSize) throws SQLException {
+        String sql = "SELECT id, url_id, status_code, created_at FROM url_checks WHERE created_at < ? "
+                + "ORDER BY created_at, id LIMIT ?";
+        List<UrlCheck> expired = new ArrayList<>(batchSize);
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setTimestamp(1, cutoff);
+            stmt.setInt(2, batchSize);
             try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    UrlCheck check = new UrlCheck();
+                while (rs.next()) {
+                    UrlCheck check = new UrlCheck(rs.getLong("url_id"), rs.getInt("status_code"),
+                            null, null, null, rs.getTimestamp("created_at"));
                     check.setId(rs.getLong("id"));
-                    check.setUrlId(rs.getLong("url_id"));
-                    check.setStatusCode(rs.getInt("status_code"));
-                    check.setTitle(rs.getString("title"));
-                    check.setH1(rs.getString("h1"));
-                    check.setDescription(rs.getString("description"));
-                    check.setCreatedAt(rs.getTimestamp("created_at"));
-                    return Optional.of(check);
+                    expired.add(check);
                 }
             }
         }
-        return Optional.empty();
+        return expired;
+    }
+
+    private static void addToRollups(Connection conn, Map<DailyRollupKey, Integer> counts) throws SQLException {
+        if (counts.isEmpty()) {
+            return;
+        }
+        String sql = SqlDialect.isPostgres(conn)
+                ? "INSERT INTO url_check_daily_rollups (url_id, check_day, status_code, check_count) "
+                        + "VALUES (?, ?, ?, ?) ON CONFLICT (url_id, check_day, status_code) "
+                        + "DO UPDATE SET check_count = url_check_daily_rollups.check_count + EXCLUDED.check_count"
+                : "MERGE INTO url_check_daily_rollups r USING (VALUES (CAST(? AS BIGINT), CAST(? AS DATE), "
+                        + "CAST(? AS INTEGER), CAST(? AS INTEGER))) AS s(url_id, check_day, status_code, check_count) "
+                        + "ON r.url_id = s.url_id AND r.check_day = s.check_day AND r.status_code = s.status_code "
+                        + "WHEN MATCHED THEN UPDATE SET check_count = r.check_count + s.check_count "
+                        + "WHEN NOT MATCHED THEN INSERT (url_id, check_day, status_code, check_count) "
+                        + "VALUES (s.url_id, s.check_day, s.status_code, s.check_count)";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            for (Map.Entry<DailyRollupKey, Integer> entry : counts.entrySet()) {
+                DailyRollupKey key = entry.getKey();
+                stmt.setLong(1, key.urlId());
+                stmt.setDate(2, Date.valueOf(key.day()));
+                stmt.setInt(3, key.statusCode());
+                stmt.setInt(4, entry.getValue());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+
+    private static UrlCheck mapUrlCheck(ResultSet rs) throws SQLException {
+        UrlCheck check = new UrlCheck();
+        check.setId(rs.getLong("id"));
+        check.setUrlId(rs.getLong("url_id"));
+        check.setStatusCode(rs.getInt("status_code"));
+        check.setTitle(rs.getString("title"));
+        check.setH1(rs.getString("h1"));
+        check.setDescription(rs.getString("description"));
+        check.setCreatedAt(rs.getTimestamp("created_at"));
+        check.setOutcome(CheckOutcome.fromColumn(rs.getString("outcome")));
+        check.setEtag(rs.getString("etag"));
+        check.setLastModified(rs.getString("last_modified"));
+        check.setContentHash(rs.getString("content_hash"));
+        check.setTtfbMillis(rs.getObject("ttfb_ms", Integer.class));
+        check.setTotalMillis(rs.getObject("total_ms", Integer.class));
+        check.setResponseBytes(rs.getObject("response_bytes", Long.class));
+        check.setRedirectCount(rs.getObject("redirect_count", Integer.class));
+        check.setProtocol(rs.getString("protocol"));
+        return check;
+    }
+
+    private static void bindInsert(PreparedStatement stmt, UrlCheck urlCheck) throws SQLException {
+        stmt.setLong(1, urlCheck.getUrlId());
+        stmt.setInt(2, urlCheck.getStatusCode());
+        stmt.setString(3, fitColumn(urlCheck.getTitle()));
+        stmt.setString(4, fitColumn(urlCheck.getH1()));
+        stmt.setString(5, urlCheck.getDescription());
+        stmt.setTimestamp(6, urlCheck.getCreatedAt());
+        stmt.setString(7, urlCheck.getOutcome() != null ? urlCheck.getOutcome().name() : null);
+        stmt.setString(8, urlCheck.getEtag());
+        stmt.setString(9, urlCheck.getLastModified());
+        stmt.setString(10, urlCheck.getContentHash());
+        // timings are null for checks that never got a response
+        stmt.setObject(11, urlCheck.getTtfbMillis(), Types.INTEGER);
+        stmt.setObject(12, urlCheck.getTotalMillis(), Types.INTEGER);
+        stmt.setObject(13, urlCheck.getResponseBytes(), Types.BIGINT);
+        stmt.setObject(14, urlCheck.getRedirectCount(), Types.INTEGER);
+        stmt.setString(15, urlCheck.getProtocol());
+    }
+
+    private static String fitColumn(String value) {
+        if (value == null || value.length() <= TEXT_COLUMN_LENGTH) {
+            return value;
+        }
+        int end = TEXT_COLUMN_LENGTH;
+        // never split a surrogate pair, which would leave half a character behind
+        if (Character.isHighSurrogate(value.charAt(end - 1))) {
+            end--;
+        }
+        return value.substring(0, end);
+    }
+
+    private static void bindLastCheckUpdate(PreparedStatement stmt, UrlCheck urlCheck) throws SQLException {
+        stmt.setLong(1, urlCheck.getId());
+        stmt.setInt(2, urlCheck.getStatusCode());
+        stmt.setTimestamp(3, urlCheck.getCreatedAt());
+        stmt.setLong(4, urlCheck.getUrlId());
+        stmt.setTimestamp(5, urlCheck.getCreatedAt());
+        stmt.setTimestamp(6, urlCheck.getCreatedAt());
+        stmt.setLong(7, urlCheck.getId());
+    }
+
+    private record DailyRollupKey(long urlId, LocalDate day, int statusCode) {
     }
 }
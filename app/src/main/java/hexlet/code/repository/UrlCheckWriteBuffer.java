@@ -0,0 +1,155 @@
+package hexlet.code.repository;
+
+import hexlet.code.AppConfig;
+import hexlet.code.model.UrlCheck;
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind buffer that collects URL checks from concurrent checkers and saves them with
+ * {@link UrlCheckRepository#saveAll} once the batch is full or the flush interval has passed,
+ * so many checks share one transaction and one round-trip per statement.
+ * Each added check gets a future completed when its batch has been saved, so callers that need the
+ * check to be visible can wait for it while others just fire and forget.
+ */
+@Slf4j
+public final class UrlCheckWriteBuffer implements AutoCloseable {
+    private final UrlCheckRepository urlCheckRepository;
+    private final int batchSize;
+    private final ScheduledExecutorService flusher;
+    private List<PendingWrite> pending;
+    private boolean closed;
+
+    private UrlCheckWriteBuffer(UrlCheckRepository urlCheckRepository, int batchSize, boolean timed) {
+        this.urlCheckRepository = urlCheckRepository;
+        this.batchSize = batchSize;
+        this.pending = new ArrayList<>(batchSize);
+        this.flusher = timed ? Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "url-check-write-buffer");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+    }
+
+    /**
+     * Creates a buffer and, when a flush interval is given, starts flushing partial batches on that schedule
+     * once the buffer is fully constructed.
+     * @param urlCheckRepository the repository batches are saved with
+     * @param batchSize the number of checks that triggers a flush
+     * @param flushInterval how often partial batches are flushed, or null to flush them only on
+     *                      {@link #flush()} and {@link #close()}
+     * @return the buffer
+     */
+    public static UrlCheckWriteBuffer create(UrlCheckRepository urlCheckRepository, int batchSize,
+                                             Duration flushInterval) {
+        UrlCheckWriteBuffer buffer = new UrlCheckWriteBuffer(urlCheckRepository, batchSize, flushInterval != null);
+        if (flushInterval != null) {
+            long intervalMillis = flushInterval.toMillis();
+            buffer.flusher.scheduleWithFixedDelay(buffer::flush, intervalMillis, intervalMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+        return buffer;
+    }
+
+    /**
+     * Creates a buffer configured with the CHECK_WRITE_BATCH_SIZE and CHECK_WRITE_FLUSH_MILLIS
+     * environment variables.
+     * @param urlCheckRepository the repository batches are saved with
+     * @return the buffer, or null when CHECK_WRITE_BATCH_SIZE is not above 1 and checks are saved one by one
+     */
+    public static UrlCheckWriteBuffer fromEnv(UrlCheckRepository urlCheckRepository) {
+        int batchSize = AppConfig.getInt("CHECK_WRITE_BATCH_SIZE", 1);
+        if (batchSize <= 1) {
+            return null;
+        }
+        return create(urlCheckRepository, batchSize,
+                Duration.ofMillis(AppConfig.getLong("CHECK_WRITE_FLUSH_MILLIS", 50)));
+    }
+
+    /**
+     * Queues the check for saving; if this fills the batch, or the buffer is already closed,
+     * the batch is saved on the calling thread.
+     * @param urlCheck the check to save
+     * @return a future completed with the check, its id set, once it has been saved
+     */
+    public CompletableFuture<UrlCheck> add(UrlCheck urlCheck) {
+        PendingWrite write = new PendingWrite(urlCheck);
+        List<PendingWrite> full = null;
+        synchronized (this) {
+            pending.add(write);
+            if (closed || pending.size() >= batchSize) {
+                full = swap();
+            }
+        }
+        if (full != null) {
+            write(full);
+        }
+        return write.future;
+    }
+
+    /**
+     * Saves the checks queued so far.
+     */
+    public void flush() {
+        List<PendingWrite> rest;
+        synchronized (this) {
+            rest = swap();
+        }
+        write(rest);
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        if (flusher != null) {
+            flusher.shutdown();
+        }
+        flush();
+    }
+
+    private List<PendingWrite> swap() {
+        List<PendingWrite> batch = pending;
+        pending = new ArrayList<>(batchSize);
+        return batch;
+    }
+
+    private void write(List<PendingWrite> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<UrlCheck> checks = new ArrayList<>(batch.size());
+        for (PendingWrite write : batch) {
+            checks.add(write.urlCheck);
+        }
+        try {
+            urlCheckRepository.saveAll(checks);
+            for (PendingWrite write : batch) {
+                write.future.complete(write.urlCheck);
+            }
+        } catch (SQLException | RuntimeException e) {
+            log.error("Failed to save a batch of {} checks: {}", checks.size(), e.getMessage());
+            for (PendingWrite write : batch) {
+                write.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static final class PendingWrite {
+        private final UrlCheck urlCheck;
+        private final CompletableFuture<UrlCheck> future = new CompletableFuture<>();
+
+        private PendingWrite(UrlCheck urlCheck) {
+            this.urlCheck = urlCheck;
+        }
+    }
+}
@@ -1,6 +1,9 @@
 package hexlet.code.repository;
 
+import hexlet.code.metrics.AppMetrics;
+import hexlet.code.model.Page;
 import hexlet.code.model.Url;
+import hexlet.code.model.UrlWithLastCheck;
 import lombok.extern.slf4j.Slf4j;
 
 import javax.sql.DataSource;
@@ -8,12 +11,19 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 @Slf4j
 public class UrlRepository {
+    private static final int STREAM_FETCH_SIZE = 500;
+    private static final String LAST_CHECK_COLUMNS =
+            "id, name, created_at, last_check_id, last_check_status_code, last_check_created_at";
+
     private final DataSource dataSource;
 
     public UrlRepository(DataSource dataSource) {
@@ -29,30 +39,51 @@ public class UrlRepository {
      * @throws SQLException if a database error occurs
      */
     public Url save(Url url) throws SQLException {
-        String sql = "INSERT INTO urls (name, created_at) VALUES (?, ?)";
-        try (Connection conn = dataSource.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql, PreparedStatement.RETURN_GENERATED_KEYS)) {
-            stmt.setString(1, url.getName());
-            stmt.setTimestamp(2, url.getCreatedAt());
-            int rows = stmt.executeUpdate();
-            log.info("Rows affected by save: {}", rows);
-            if (rows > 0) {
-                try (ResultSet rs = stmt.getGeneratedKeys()) {
-                    if (rs.next()) {
-                        url.setId(rs.getLong(1));
-                        log.info("Saved URL with id: {}", url.getId());
-                    } else {
-                        log.warn("No generated key returned for URL: {}", url.getName());
+        return AppMetrics.timeUpdate("UrlRepository.save", () -> {
+            String sql = "INSERT INTO urls (name, created_at) VALUES (?, ?)";
+            try (Connection conn = dataSource.getConnection();
+                 PreparedStatement stmt = conn.prepareStatement(sql, PreparedStatement.RETURN_GENERATED_KEYS)) {
+                stmt.setString(1, url.getName());
+                stmt.setTimestamp(2, url.getCreatedAt());
+                int rows = stmt.executeUpdate();
+                log.debug("Rows affected by save: {}", rows);
+                if (rows > 0) {
+                    try (ResultSet rs = stmt.getGeneratedKeys()) {
+                        if (rs.next()) {
+                            url.setId(rs.getLong(1));
+                            log.debug("Saved URL with id: {}", url.getId());
+                        } else {
+                            log.warn("No generated key returned for URL: {}", url.getName());
+                        }
                     }
+                } else {
+                    log.warn("No rows affected while saving URL: {}", url.getName());
                 }
-            } else {
-                log.warn("No rows affected while saving URL: {}", url.getName());
+                return url;
+            } catch (SQLException e) {
+                log.error("Database error saving URL: {}, error: {}", url.getName(), e.getMessage());
+                throw e;
             }
-            return url;
-        } catch (SQLException e) {
-            log.error("Database error saving URL: {}, error: {}", url.getName(), e.getMessage());
-            throw e;
-        }
+        });
+    }
+
+    /**
+     * Inserts the URL unless one with the same name already exists, relying on the UNIQUE constraint on name.
+     * A single statement both checks and inserts, so concurrent submissions of the same URL cannot both succeed.
+     * This method is not intended for overriding; for custom save logic,
+     * extend this class and use composition to modify behavior safely.
+     * @param url the URL to save; its id is set when it is inserted
+     * @return true if the URL was inserted, false if it already existed
+     * @throws SQLException if a database error occurs
+     */
+    public boolean saveIfAbsent(Url url) throws SQLException {
+        return AppMetrics.timeUpdate("UrlRepository.saveIfAbsent", () -> {
+            try (Connection conn = dataSource.getConnection()) {
+                return SqlDialect.isPostgres(conn)
+                        ? insertOnConflictDoNothing(conn, url)
+                        : mergeWhenNotMatched(conn, url);
+            }
+        });
     }
 
     /**
@@ -63,19 +94,304 @@ public class UrlRepository {
      * @throws SQLException if a database error occurs
      */
     public List<Url> findAll() throws SQLException {
-        String sql = "SELECT id, name, created_at FROM urls";
-        List<Url> urls = new ArrayList<>();
-        try (Connection conn = dataSource.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql);
-             ResultSet rs = stmt.executeQuery()) {
-            while (rs.next()) {
-                Url url = new Url(rs.getString("name"), rs.getTimestamp("created_at"));
-                url.setId(rs.getLong("id"));
-                urls.add(url);
-            }
-            log.info("Found {} URLs", urls.size());
+        return AppMetrics.timeQuery("UrlRepository.findAll", () -> {
+            String sql = "SELECT id, name, created_at FROM urls";
+            List<Url> urls = new ArrayList<>();
+            try (Connection conn = dataSource.getConnection();
+                 PreparedStatement stmt = conn.prepareStatement(sql);
+                 ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    Url url = new Url(rs.getString("name"), rs.getTimestamp("created_at"));
+                    url.setId(rs.getLong("id"));
+                    urls.add(url);
+                }
+                log.debug("Found {} URLs", urls.size());
+                return urls;
+            }
+        });
+    }
+
+    /**
+     * Finds the next batch of URLs after the given id, optionally restricted to names containing a substring.
+     * This method is not intended for overriding; for custom query logic,
+     * extend this class and use composition to modify behavior safely.
+     * @param afterId the id the batch starts after
+     * @param nameFilter the substring the URL name must contain, or null for all URLs
+     * @param limit the maximum number of URLs in the batch
+     * @return a list of URLs ordered by id
+     * @throws SQLException if a database error occurs
+     */
+    public List<Url> findBatch(long afterId, String nameFilter, int limit) throws SQLException {
+        return AppMetrics.timeQuery("UrlRepository.findBatch", () -> {
+            String sql = "SELECT id, name, created_at FROM urls WHERE id > ?"
+                    + (nameFilter != null ? " AND name LIKE ?" : "")
+                    + " ORDER BY id LIMIT ?";
+            List<Url> urls = new ArrayList<>(limit);
+            try (Connection conn = dataSource.getConnection();
+                 PreparedStatement stmt = conn.prepareStatement(sql)) {
+                int index = 1;
+                stmt.setLong(index++, afterId);
+                if (nameFilter != null) {
+                    stmt.setString(index++, "%" + nameFilter + "%");
+                }
+                stmt.setInt(index, limit);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        Url url = new Url(rs.getString("name"), rs.getTimestamp("created_at"));
+                        url.setId(rs.getLong("id"));
+                        urls.add(url);
+                    }
+                }
+            }
             return urls;
-        }
+        });
+    }
+
+    /**
+     * Finds all URLs together with the summary of their newest check.
+     * This method is not intended for overriding; for custom query logic,
+     * extend this class and use composition to modify behavior safely.
+     * @return a list of URLs with the status code and date of their last check
+     * @throws SQLException if a database error occurs
+     */
+    public List<UrlWithLastCheck> findAllWithLastCheck() throws SQLException {
+        return AppMetrics.timeQuery("UrlRepository.findAllWithLastCheck", () -> {
+            String sql = "SELECT " + LAST_CHECK_COLUMNS + " FROM urls ORDER BY id";
+            List<UrlWithLastCheck> urls = new ArrayList<>();
+            try (Connection conn = dataSource.getConnection();
+                 PreparedStatement stmt = conn.prepareStatement(sql);
+                 ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    urls.add(mapUrlWithLastCheck(rs));
+                }
+                log.debug("Found {} URLs with last checks", urls.size());
+                return urls;
+            }
+        });
+    }
+
+    /**
+     * Finds one page of URLs with their newest check using keyset pagination on the URL id.
+     * When {@code beforeId} is set the page ending right before that id is returned,
+     * otherwise the page starting right after {@code afterId} (or the first page if it is null).
+     * This method is not intended for overriding; for custom query logic,
+     * extend this class and use composition to modify behavior safely.
+     * @param afterId the id the page starts after, or null
+     * @param beforeId the id the page ends before, or null
+     * @param limit the maximum number of URLs on the page
+     * @return the page of URLs ordered by id
+     * @throws SQLException if a database error occurs
+     */
+    public Page<UrlWithLastCheck> findPageWithLastCheck(Long afterId, Long beforeId, int limit) throws SQLException {
+        return AppMetrics.timeQuery("UrlRepository.findPageWithLastCheck", () -> {
+            boolean backwards = beforeId != null;
+            String sql = "SELECT " + LAST_CHECK_COLUMNS + " FROM urls "
+                    + (backwards ? "WHERE id < ? ORDER BY id DESC" : "WHERE id > ? ORDER BY id") + " LIMIT ?";
+            List<UrlWithLastCheck> urls = new ArrayList<>(limit + 1);
+            try (Connection conn = dataSource.getConnection();
+                 PreparedStatement stmt = conn.prepareStatement(sql,
+                         ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                stmt.setFetchSize(limit + 1);
+                stmt.setLong(1, backwards ? beforeId : (afterId != null ? afterId : 0L));
+                stmt.setInt(2, limit + 1);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        urls.add(mapUrlWithLastCheck(rs));
+                    }
+                }
+            }
+            boolean hasMore = urls.size() > limit;
+            if (hasMore) {
+                urls.remove(urls.size() - 1);
+            }
+            if (backwards) {
+                Collections.reverse(urls);
+                return new Page<>(urls, hasMore, true);
+            }
+            return new Page<>(urls, afterId != null && afterId > 0, hasMore);
+        });
+    }
+
+    /**
+     * Finds URLs that are due for a re-check, most urgent first: never checked, then failed
+     * (status code 0) checks older than {@code failedDueBefore}, then checks older than {@code dueBefore}
+     * ordered from the oldest.
+     * This method is not intended for overriding; for custom query logic,
+     * extend this class and use composition to modify behavior safely.
+     * @param dueBefore successful checks created before this moment are due
+     * @param failedDueBefore failed checks created before this moment are due
+     * @param limit the maximum number of URLs to return
+     * @return a list of due URLs with their last check
+     * @throws SQLException if a database error occurs
+     */
+    public List<UrlWithLastCheck> findDueForRecheck(Timestamp dueBefore, Timestamp failedDueBefore, int limit)
+            throws SQLException {
+        return AppMetrics.timeQuery("UrlRepository.findDueForRecheck", () -> {
+            String sql = "SELECT " + LAST_CHECK_COLUMNS + " FROM urls "
+                    + "WHERE last_check_id IS NULL "
+                    + "OR (last_check_status_code = 0 AND last_check_created_at <= ?) "
+                    + "OR last_check_created_at <= ? "
+                    + "ORDER BY CASE WHEN last_check_id IS NULL THEN 0 WHEN last_check_status_code = 0 THEN 1 "
+                    + "ELSE 2 END, last_check_created_at, id "
+                    + "LIMIT ?";
+            List<UrlWithLastCheck> urls = new ArrayList<>();
+            try (Connection conn = dataSource.getConnection();
+                 PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setTimestamp(1, failedDueBefore);
+                stmt.setTimestamp(2, dueBefore);
+                stmt.setInt(3, limit);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        urls.add(mapUrlWithLastCheck(rs));
+                    }
+                }
+            }
+            return urls;
+        });
+    }
+
+    /**
+     * Recomputes the last-check summary columns from url_checks for URLs with ids in {@code (afterId, toId]}.
+     * Used by the backfill job to fill the summary for checks stored before the columns existed.
+     * This method is not intended for overriding; for custom update logic,
+     * extend this class and use composition to modify behavior safely.
+     * @param afterId the id range start, exclusive
+     * @param toId the id range end, inclusive
+     * @return the number of updated URLs
+     * @throws SQLException if a database error occurs
+     */
+    public int refreshLastChecks(long afterId, long toId) throws SQLException {
+        return AppMetrics.timeUpdate("UrlRepository.refreshLastChecks", () -> {
+            String sql = "UPDATE urls u SET (last_check_id, last_check_status_code, last_check_created_at) = "
+                    + "(SELECT c.id, c.status_code, c.created_at FROM url_checks c WHERE c.url_id = u.id "
+                    + "ORDER BY c.created_at DESC, c.id DESC LIMIT 1) "
+                    + "WHERE u.id > ? AND u.id <= ?";
+            try (Connection conn = dataSource.getConnection();
+                 PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setLong(1, afterId);
+                stmt.setLong(2, toId);
+                return stmt.executeUpdate();
+            }
+        });
+    }
+
+    /**
+     * Returns a version marker of the URL listing read from the urls table itself, so it changes with writes
+     * made by any process: a new URL raises the largest id and a saved check raises the largest last-check id
+     * (check ids only grow). Both maxima are read from an index, so the cost does not grow with the table.
+     * A backfill only copies existing check ids into empty summaries and leaves the marker as it is;
+     * listings cached while it runs are refreshed by the next new URL or check.
+     * This method is not intended for overriding; for custom query logic,
+     * extend this class and use composition to modify behavior safely.
+     * @return the version marker
+     * @throws SQLException if a database error occurs
+     */
+    public String findListingVersion() throws SQLException {
+        return AppMetrics.timeQuery("UrlRepository.findListingVersion", () -> {
+            String sql = "SELECT MAX(id), MAX(last_check_id) FROM urls";
+            try (Connection conn = dataSource.getConnection();
+                 PreparedStatement stmt = conn.prepareStatement(sql);
+                 ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                return rs.getLong(1) + "-" + rs.getLong(2);
+            }
+        });
+    }
+
+    /**
+     * Returns the largest URL id, or 0 when there are no URLs.
+     * This method is not intended for overriding; for custom query logic,
+     * extend this class and use composition to modify behavior safely.
+     * @return the largest id
+     * @throws SQLException if a database error occurs
+     */
+    public long findMaxId() throws SQLException {
+        return AppMetrics.timeQuery("UrlRepository.findMaxId", () -> {
+            try (Connection conn = dataSource.getConnection();
+                 PreparedStatement stmt = conn.prepareStatement("SELECT MAX(id) FROM urls");
+                 ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0L;
+            }
+        });
+    }
+
+    /**
+     * Passes URLs with their last-check summary to the consumer one row at a time, in id order, without
+     * collecting them; the driver fetches rows in chunks, so memory use does not depend on the result size.
+     * This method is not intended for overriding; for custom query logic,
+     * extend this class and use composition to modify behavior safely.
+     * @param afterId only URLs with a larger id are returned
+     * @param limit the maximum number of URLs, or null for all of them
+     * @param consumer receives each row
+     * @throws SQLException if a database error occurs
+     */
+    public void streamWithLastCheck(long afterId, Integer limit, Consumer<UrlWithLastCheck> consumer)
+            throws SQLException {
+        AppMetrics.timeStreamedQuery("UrlRepository.streamWithLastCheck", () -> {
+            String sql = "SELECT " + LAST_CHECK_COLUMNS + " FROM urls WHERE id > ? ORDER BY id"
+                    + (limit != null ? " LIMIT ?" : "");
+            try (Connection conn = dataSource.getConnection()) {
+                // PostgreSQL only honours the fetch size inside a transaction
+                conn.setAutoCommit(false);
+                try (PreparedStatement stmt = conn.prepareStatement(sql,
+                        ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                    stmt.setFetchSize(STREAM_FETCH_SIZE);
+                    stmt.setLong(1, afterId);
+                    if (limit != null) {
+                        stmt.setInt(2, limit);
+                    }
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            consumer.accept(mapUrlWithLastCheck(rs));
+                        }
+                    }
+                } finally {
+                    conn.rollback();
+                }
+            }
+        });
+    }
+
+    /**
+     * Finds a URL by its ID together with its last-check summary.
+     * This method is not intended for overriding; for custom query logic,
+     * extend this class and use composition to modify behavior safely.
+     * @param id the ID of the URL
+     * @return an optional containing the URL, or empty if not found
+     * @throws SQLException if a database error occurs
+     */
+    public Optional<UrlWithLastCheck> findWithLastCheckById(Long id) throws SQLException {
+        return AppMetrics.timeQuery("UrlRepository.findWithLastCheckById", () -> {
+            String sql = "SELECT " + LAST_CHECK_COLUMNS + " FROM urls WHERE id = ?";
+            try (Connection conn = dataSource.getConnection();
+                 PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setLong(1, id);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    return rs.next() ? Optional.of(mapUrlWithLastCheck(rs)) : Optional.empty();
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the id of the URL's newest check from the last-check summary, a single primary-key lookup
+     * that serves as a cheap version marker for the URL's page.
+     * This method is not intended for overriding; for custom query logic,
+     * extend this class and use composition to modify behavior safely.
+     * @param id the ID of the URL
+     * @return an optional containing the check id, 0 when the URL has no checks, or empty if the URL is not found
+     * @throws SQLException if a database error occurs
+     */
+    public Optional<Long> findLastCheckId(Long id) throws SQLException {
+        return AppMetrics.timeQuery("UrlRepository.findLastCheckId", () -> {
+            try (Connection conn = dataSource.getConnection();
+                 PreparedStatement stmt = conn.prepareStatement("SELECT last_check_id FROM urls WHERE id = ?")) {
+                stmt.setLong(1, id);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    return rs.next() ? Optional.of(rs.getLong(1)) : Optional.empty();
+                }
+            }
+        });
     }
 
     /**
@@ -87,19 +403,21 @@ public class UrlRepository {
      * @throws SQLException if a database error occurs
      */
     public Optional<Url> findById(Long id) throws SQLException {
-        String sql = "SELECT id, name, created_at FROM urls WHERE id = ?";
-        try (Connection conn = dataSource.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setLong(1, id);
-            try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    Url url = new Url(rs.getString("name"), rs.getTimestamp("created_at"));
-                    url.setId(rs.getLong("id"));
-                    return Optional.of(url);
+        return AppMetrics.timeQuery("UrlRepository.findById", () -> {
+            String sql = "SELECT id, name, created_at FROM urls WHERE id = ?";
+            try (Connection conn = dataSource.getConnection();
+                 PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setLong(1, id);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (rs.next()) {
+                        Url url = new Url(rs.getString("name"), rs.getTimestamp("created_at"));
+                        url.setId(rs.getLong("id"));
+                        return Optional.of(url);
+                    }
+                    return Optional.empty();
                 }
-                return Optional.empty();
             }
-        }
+        });
     }
 
     /**
@@ -111,24 +429,68 @@ public class UrlRepository {
      * @throws SQLException if a database error occurs
      */
     public Optional<Url> findByName(String name) throws SQLException {
-        String sql = "SELECT id, name, created_at FROM urls WHERE name = ?";
-        log.info("Searching for URL with name: '{}'", name);
-        try (Connection conn = dataSource.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setString(1, name);
+        return AppMetrics.timeQuery("UrlRepository.findByName", () -> {
+            String sql = "SELECT id, name, created_at FROM urls WHERE name = ?";
+            log.debug("Searching for URL with name: '{}'", name);
+            try (Connection conn = dataSource.getConnection();
+                 PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setString(1, name);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (rs.next()) {
+                        Url url = new Url(rs.getString("name"), rs.getTimestamp("created_at"));
+                        url.setId(rs.getLong("id"));
+                        log.debug("Found URL by name '{}': {}", name, url);
+                        return Optional.of(url);
+                    }
+                    log.debug("No URL found for name: '{}'", name);
+                    return Optional.empty();
+                }
+            }
+        });
+    }
+
+    private static boolean insertOnConflictDoNothing(Connection conn, Url url) throws SQLException {
+        String sql = "INSERT INTO urls (name, created_at) VALUES (?, ?) ON CONFLICT (name) DO NOTHING RETURNING id";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, url.getName());
+            stmt.setTimestamp(2, url.getCreatedAt());
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
-                    Url url = new Url(rs.getString("name"), rs.getTimestamp("created_at"));
-                    url.setId(rs.getLong("id"));
-                    log.info("Found URL by name '{}': {}", name, url);
-                    return Optional.of(url);
-                } else {
-                    log.warn("No URL found for name: '{}'. Checking table contents...", name);
-                    List<Url> allUrls = findAll();
-                    log.warn("Current table contents: {}", allUrls);
-                    return Optional.empty();
+                    url.setId(rs.getLong(1));
+                    return true;
+                }
+                return false;
+            }
+        }
+    }
+
+    private static boolean mergeWhenNotMatched(Connection conn, Url url) throws SQLException {
+        String sql = "MERGE INTO urls u USING (VALUES (CAST(? AS VARCHAR(255)), CAST(? AS TIMESTAMP))) "
+                + "AS s(name, created_at) ON u.name = s.name "
+                + "WHEN NOT MATCHED THEN INSERT (name, created_at) VALUES (s.name, s.created_at)";
+        try (PreparedStatement stmt = conn.prepareStatement(sql, new String[] {"id"})) {
+            stmt.setString(1, url.getName());
+            stmt.setTimestamp(2, url.getCreatedAt());
+            if (stmt.executeUpdate() == 0) {
+                return false;
+            }
+            try (ResultSet rs = stmt.getGeneratedKeys()) {
+                if (rs.next()) {
+                    url.setId(rs.getLong(1));
                 }
             }
+            return true;
         }
     }
+
+    private static UrlWithLastCheck mapUrlWithLastCheck(ResultSet rs) throws SQLException {
+        int statusCode = rs.getInt("last_check_status_code");
+        Integer lastStatusCode = rs.wasNull() ? null : statusCode;
+        return new UrlWithLastCheck(
+                rs.getLong("id"),
+                rs.getString("name"),
+                rs.getTimestamp("created_at"),
+                lastStatusCode,
+                rs.getTimestamp("last_check_created_at"));
+    }
 }
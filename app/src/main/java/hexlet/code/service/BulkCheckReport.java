@@ -0,0 +1,55 @@
+package hexlet.code.service;
+
+import lombok.Getter;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Summary of a bulk check run: how many checks ran, how fast, and the latency distribution of single checks.
+ */
+@Getter
+public class BulkCheckReport {
+    private static final double MILLIS_PER_SECOND = 1000.0;
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    private final int total;
+    private final int failed;
+    private final int unsaved;
+    private final long elapsedMillis;
+    private final double checksPerSecond;
+    private final double p50Millis;
+    private final double p95Millis;
+    private final double p99Millis;
+    private final double maxMillis;
+
+    public BulkCheckReport(int failed, int unsaved, long elapsedMillis, long[] latenciesNanos) {
+        long[] sorted = latenciesNanos.clone();
+        Arrays.sort(sorted);
+        this.total = sorted.length;
+        this.failed = failed;
+        this.unsaved = unsaved;
+        this.elapsedMillis = elapsedMillis;
+        this.checksPerSecond = elapsedMillis > 0 ? total * MILLIS_PER_SECOND / elapsedMillis : total;
+        this.p50Millis = percentile(sorted, 0.50);
+        this.p95Millis = percentile(sorted, 0.95);
+        this.p99Millis = percentile(sorted, 0.99);
+        this.maxMillis = sorted.length == 0 ? 0 : sorted[sorted.length - 1] / NANOS_PER_MILLI;
+    }
+
+    private static double percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(quantile * sorted.length) - 1;
+        return sorted[Math.max(index, 0)] / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT,
+                "checks=%d failed=%d unsaved=%d elapsed=%dms throughput=%.1f checks/s "
+                        + "latency p50=%.0fms p95=%.0fms p99=%.0fms max=%.0fms",
+                total, failed, unsaved, elapsedMillis, checksPerSecond, p50Millis, p95Millis, p99Millis, maxMillis);
+    }
+}
@@ -0,0 +1,195 @@
+package hexlet.code.service;
+
+import hexlet.code.AppConfig;
+import hexlet.code.model.Url;
+import hexlet.code.model.UrlCheck;
+import hexlet.code.repository.UrlCheckRepository;
+import hexlet.code.repository.UrlCheckWriteBuffer;
+import hexlet.code.repository.UrlRepository;
+import lombok.extern.slf4j.Slf4j;
+
+import java.net.URI;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks many URLs concurrently, capping both the total number of in-flight checks
+ * and the number of in-flight checks per host, and saves the results in JDBC batches.
+ * Checks whose batch fails to save are counted in the report rather than lost silently.
+ */
+@Slf4j
+public class BulkCheckService {
+    private static final int URL_BATCH_SIZE = 500;
+    private static final int QUEUED_PER_SLOT = 4;
+
+    private final UrlRepository urlRepository;
+    private final UrlCheckRepository urlCheckRepository;
+    private final UrlCheckService urlCheckService;
+    private final int concurrency;
+    private final int perHostConcurrency;
+    private final int writeBatchSize;
+
+    public BulkCheckService(UrlRepository urlRepository, UrlCheckRepository urlCheckRepository,
+                            UrlCheckService urlCheckService, int concurrency, int perHostConcurrency,
+                            int writeBatchSize) {
+        this.urlRepository = urlRepository;
+        this.urlCheckRepository = urlCheckRepository;
+        this.urlCheckService = urlCheckService;
+        this.concurrency = concurrency;
+        this.perHostConcurrency = perHostConcurrency;
+        this.writeBatchSize = writeBatchSize;
+    }
+
+    /**
+     * Creates a bulk checker configured with the BULK_CHECK_CONCURRENCY, BULK_CHECK_PER_HOST
+     * and BULK_CHECK_WRITE_BATCH environment variables.
+     * @param urlRepository the URL repository
+     * @param urlCheckRepository the URL check repository
+     * @param urlCheckService the service that performs the checks
+     * @return the configured bulk checker
+     */
+    public static BulkCheckService fromEnv(UrlRepository urlRepository, UrlCheckRepository urlCheckRepository,
+                                           UrlCheckService urlCheckService) {
+        return new BulkCheckService(urlRepository, urlCheckRepository, urlCheckService,
+                AppConfig.getInt("BULK_CHECK_CONCURRENCY", 64),
+                AppConfig.getInt("BULK_CHECK_PER_HOST", 2),
+                AppConfig.getInt("BULK_CHECK_WRITE_BATCH", 100));
+    }
+
+    /**
+     * Checks all URLs, or only those whose name contains the filter, and saves the results.
+     * URLs are queued per host and each host is drained by at most {@code perHostConcurrency} workers, which
+     * take a global slot only once they have a URL to check, so one large host cannot occupy every slot.
+     * @param nameFilter the substring URL names must contain, or null to check every URL
+     * @return the run report with throughput, latency percentiles and the number of checks that failed to save
+     * @throws SQLException if the URLs cannot be read
+     * @throws InterruptedException if the run is interrupted
+     */
+    public BulkCheckReport checkAll(String nameFilter) throws SQLException, InterruptedException {
+        long startedAt = System.nanoTime();
+        Run run;
+        try (UrlCheckWriteBuffer writer = UrlCheckWriteBuffer.create(urlCheckRepository, writeBatchSize, null);
+             ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            run = new Run(writer);
+            long afterId = 0;
+            List<Url> batch = urlRepository.findBatch(afterId, nameFilter, URL_BATCH_SIZE);
+            while (!batch.isEmpty()) {
+                for (Url url : batch) {
+                    run.queued.acquire();
+                    HostQueue queue = run.hosts.computeIfAbsent(hostOf(url), host -> new HostQueue());
+                    queue.urls.add(url);
+                    if (queue.tryStartWorker(perHostConcurrency)) {
+                        executor.execute(() -> drain(run, queue));
+                    }
+                }
+                afterId = batch.get(batch.size() - 1).getId();
+                batch = urlRepository.findBatch(afterId, nameFilter, URL_BATCH_SIZE);
+            }
+        }
+        // closing the executor waited for the workers and closing the writer saved the last batch,
+        // so every save future has completed by now
+
+        long elapsedMillis = (System.nanoTime() - startedAt) / 1_000_000;
+        long[] latencyArray = run.latencies.stream().mapToLong(Long::longValue).toArray();
+        BulkCheckReport report = new BulkCheckReport(run.failed.get(), run.unsaved.get(), elapsedMillis,
+                latencyArray);
+        log.info("Bulk check finished: {}", report);
+        return report;
+    }
+
+    // Checks the host's queued URLs one after another until the queue is empty
+    private void drain(Run run, HostQueue queue) {
+        while (true) {
+            Url url = queue.urls.poll();
+            if (url == null) {
+                queue.workers.decrementAndGet();
+                // a URL queued while this worker was leaving may have found all workers busy
+                if (queue.urls.isEmpty() || !queue.tryStartWorker(perHostConcurrency)) {
+                    return;
+                }
+                continue;
+            }
+            run.queued.release();
+            try {
+                run.globalPermits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                queue.workers.decrementAndGet();
+                return;
+            }
+            try {
+                check(run, url);
+            } finally {
+                run.globalPermits.release();
+            }
+        }
+    }
+
+    private void check(Run run, Url url) {
+        long checkStartedAt = System.nanoTime();
+        UrlCheck check = urlCheckService.runCheck(url);
+        run.latencies.add(System.nanoTime() - checkStartedAt);
+        if (check.getStatusCode() == 0) {
+            run.failed.incrementAndGet();
+        }
+        run.writer.add(check).whenComplete((saved, error) -> {
+            if (error != null) {
+                run.unsaved.incrementAndGet();
+            }
+        });
+    }
+
+    private static String hostOf(Url url) {
+        try {
+            String host = URI.create(url.getName()).getHost();
+            return host != null ? host.toLowerCase(Locale.ROOT) : url.getName();
+        } catch (IllegalArgumentException e) {
+            return url.getName();
+        }
+    }
+
+    /**
+     * State shared by the workers of one run.
+     */
+    private final class Run {
+        private final UrlCheckWriteBuffer writer;
+        private final Semaphore globalPermits = new Semaphore(concurrency);
+        // bounds how many URLs are read ahead of the workers
+        private final Semaphore queued = new Semaphore(concurrency * QUEUED_PER_SLOT);
+        private final ConcurrentHashMap<String, HostQueue> hosts = new ConcurrentHashMap<>();
+        private final Queue<Long> latencies = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final AtomicInteger unsaved = new AtomicInteger();
+
+        private Run(UrlCheckWriteBuffer writer) {
+            this.writer = writer;
+        }
+    }
+
+    /**
+     * URLs of one host waiting to be checked, and how many workers are draining them.
+     */
+    private static final class HostQueue {
+        private final Queue<Url> urls = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger workers = new AtomicInteger();
+
+        private boolean tryStartWorker(int maxWorkers) {
+            int current;
+            do {
+                current = workers.get();
+                if (current >= maxWorkers) {
+                    return false;
+                }
+            } while (!workers.compareAndSet(current, current + 1));
+            return true;
+        }
+    }
+}
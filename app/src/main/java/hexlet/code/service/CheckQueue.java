@@ -0,0 +1,146 @@
+package hexlet.code.service;
+
+import hexlet.code.AppConfig;
+import hexlet.code.model.Url;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs URL checks in the background on a bounded pool of virtual threads.
+ * A URL has at most one pending check at a time; while it is queued or running
+ * {@link #isPending(Long)} returns true so pages can show the "check pending" state.
+ */
+@Slf4j
+public class CheckQueue {
+    public enum RejectionPolicy {
+        REJECT,
+        CALLER_RUNS,
+        DISCARD_OLDEST
+    }
+
+    public enum SubmitResult {
+        QUEUED,
+        ALREADY_PENDING,
+        REJECTED
+    }
+
+    private static final long KEEP_ALIVE_SECONDS = 60;
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 5;
+
+    private final UrlCheckService urlCheckService;
+    private final ThreadPoolExecutor executor;
+    private final Set<Long> pending = ConcurrentHashMap.newKeySet();
+
+    public CheckQueue(UrlCheckService urlCheckService, int workers, int capacity, RejectionPolicy rejectionPolicy) {
+        this.urlCheckService = urlCheckService;
+        this.executor = new ThreadPoolExecutor(workers, workers, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(capacity),
+                Thread.ofVirtual().name("check-worker-", 0).factory(),
+                createRejectionHandler(rejectionPolicy));
+        this.executor.allowCoreThreadTimeOut(true);
+        log.info("Check queue started: workers={}, capacity={}, rejectionPolicy={}",
+                workers, capacity, rejectionPolicy);
+    }
+
+    /**
+     * Creates a queue configured with the CHECK_WORKERS, CHECK_QUEUE_CAPACITY
+     * and CHECK_REJECTION_POLICY environment variables.
+     * @param urlCheckService the service that performs the checks
+     * @return the configured queue
+     */
+    public static CheckQueue fromEnv(UrlCheckService urlCheckService) {
+        int workers = AppConfig.getInt("CHECK_WORKERS", 16);
+        int capacity = AppConfig.getInt("CHECK_QUEUE_CAPACITY", 1000);
+        RejectionPolicy policy = RejectionPolicy.valueOf(AppConfig.getString("CHECK_REJECTION_POLICY", "reject")
+                .toUpperCase(Locale.ROOT).replace('-', '_'));
+        return new CheckQueue(urlCheckService, workers, capacity, policy);
+    }
+
+    /**
+     * Enqueues a check of the URL unless one is already pending.
+     * @param url the URL to check
+     * @return whether the check was queued, was already pending or was rejected
+     */
+    public SubmitResult submit(Url url) {
+        if (!pending.add(url.getId())) {
+            return SubmitResult.ALREADY_PENDING;
+        }
+        try {
+            executor.execute(new CheckJob(url));
+            return SubmitResult.QUEUED;
+        } catch (RejectedExecutionException e) {
+            pending.remove(url.getId());
+            log.warn("Check queue is full, rejected check for URL {}", url.getName());
+            return SubmitResult.REJECTED;
+        }
+    }
+
+    public boolean isPending(Long urlId) {
+        return pending.contains(urlId);
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private RejectedExecutionHandler createRejectionHandler(RejectionPolicy policy) {
+        return switch (policy) {
+            case CALLER_RUNS -> new ThreadPoolExecutor.CallerRunsPolicy();
+            case DISCARD_OLDEST -> (job, pool) -> {
+                if (pool.isShutdown()) {
+                    throw new RejectedExecutionException("Check queue is shut down");
+                }
+                Runnable oldest = pool.getQueue().poll();
+                if (oldest instanceof CheckJob discarded) {
+                    pending.remove(discarded.url.getId());
+                    log.warn("Check queue is full, discarded oldest check for URL {}", discarded.url.getName());
+                }
+                pool.execute(job);
+            };
+            default -> new ThreadPoolExecutor.AbortPolicy();
+        };
+    }
+
+    private final class CheckJob implements Runnable {
+        private final Url url;
+
+        private CheckJob(Url url) {
+            this.url = url;
+        }
+
+        @Override
+        public void run() {
+            try {
+                urlCheckService.checkUrl(url);
+            } catch (Exception e) {
+                log.error("Background check failed for URL {}: {}", url.getName(), e.getMessage());
+            } finally {
+                pending.remove(url.getId());
+            }
+        }
+    }
+}
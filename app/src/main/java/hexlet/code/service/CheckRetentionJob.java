@@ -0,0 +1,111 @@
+package hexlet.code.service;
+
+import hexlet.code.AppConfig;
+import hexlet.code.repository.UrlCheckRepository;
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps url_checks bounded by periodically rolling checks older than the retention period up into
+ * per-URL daily aggregates. Each run works through the expired checks in small batches, each in its own
+ * short transaction, so the table is never locked for long and an interrupted run simply continues next time.
+ */
+@Slf4j
+public class CheckRetentionJob {
+    private final UrlCheckRepository urlCheckRepository;
+    private final Duration retention;
+    private final Duration interval;
+    private final int batchSize;
+    private volatile long lastRolledUp;
+    private volatile Instant lastRunAt;
+    private volatile ScheduledExecutorService executor;
+
+    public CheckRetentionJob(UrlCheckRepository urlCheckRepository, Duration retention, Duration interval,
+                             int batchSize) {
+        this.urlCheckRepository = urlCheckRepository;
+        this.retention = retention;
+        this.interval = interval;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Creates a job configured with the CHECK_RETENTION_DAYS, CHECK_RETENTION_INTERVAL_MINUTES and
+     * CHECK_RETENTION_BATCH_SIZE environment variables.
+     * The job is disabled unless CHECK_RETENTION_DAYS is positive.
+     * @param urlCheckRepository the URL check repository
+     * @return the configured job
+     */
+    public static CheckRetentionJob fromEnv(UrlCheckRepository urlCheckRepository) {
+        return new CheckRetentionJob(urlCheckRepository,
+                Duration.ofDays(AppConfig.getLong("CHECK_RETENTION_DAYS", 0)),
+                Duration.ofMinutes(AppConfig.getLong("CHECK_RETENTION_INTERVAL_MINUTES", 60)),
+                AppConfig.getInt("CHECK_RETENTION_BATCH_SIZE", 500));
+    }
+
+    public boolean isEnabled() {
+        return !retention.isZero() && !retention.isNegative();
+    }
+
+    public synchronized void start() {
+        if (!isEnabled() || executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "check-retention");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::safeRun, interval.toMillis(), interval.toMillis(),
+                TimeUnit.MILLISECONDS);
+        log.info("Check retention started: retention={}, interval={}, batchSize={}", retention, interval, batchSize);
+    }
+
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Rolls up every check older than the retention period, batch by batch.
+     * @return the number of checks rolled up
+     * @throws SQLException if a database error occurs
+     */
+    public long runOnce() throws SQLException {
+        Timestamp cutoff = Timestamp.from(Instant.now().minus(retention));
+        long total = 0;
+        int rolledUp;
+        do {
+            rolledUp = urlCheckRepository.rollUpOlderThan(cutoff, batchSize);
+            total += rolledUp;
+        } while (rolledUp == batchSize && !Thread.currentThread().isInterrupted());
+        lastRolledUp = total;
+        lastRunAt = Instant.now();
+        log.info("Check retention rolled up {} checks older than {}", total, cutoff);
+        return total;
+    }
+
+    public long getLastRolledUp() {
+        return lastRolledUp;
+    }
+
+    public Instant getLastRunAt() {
+        return lastRunAt;
+    }
+
+    private void safeRun() {
+        try {
+            runOnce();
+        } catch (Exception e) {
+            log.error("Check retention run failed: {}", e.getMessage());
+        }
+    }
+}
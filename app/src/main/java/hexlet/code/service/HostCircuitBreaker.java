@@ -0,0 +1,140 @@
+package hexlet.code.service;
+
+import hexlet.code.AppConfig;
+import lombok.extern.slf4j.Slf4j;
+
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.net.http.HttpConnectTimeoutException;
+import java.nio.channels.UnresolvedAddressException;
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-host circuit breaker that keeps checks from waiting out connect timeouts against hosts that are down.
+ * After {@code failureThreshold} consecutive failed requests the circuit opens and checks of the host are
+ * skipped for {@code openDuration}; then it is half-open and lets a single probe through, which closes the
+ * circuit on success and reopens it on failure. DNS and connect failures additionally put the host into a
+ * short negative cache, so a burst of checks of one dead domain fails fast even before the circuit opens.
+ * Only failing hosts have state, which is dropped on the first success.
+ */
+@Slf4j
+public class HostCircuitBreaker {
+    private final int failureThreshold;
+    private final long openNanos;
+    private final long negativeTtlNanos;
+    private final ConcurrentHashMap<String, Circuit> circuits = new ConcurrentHashMap<>();
+
+    public HostCircuitBreaker(int failureThreshold, Duration openDuration, Duration negativeTtl) {
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openDuration.toNanos();
+        this.negativeTtlNanos = negativeTtl.toNanos();
+    }
+
+    /**
+     * Creates a circuit breaker configured with the CHECK_CIRCUIT_FAILURE_THRESHOLD,
+     * CHECK_CIRCUIT_OPEN_SECONDS and CHECK_NEGATIVE_CACHE_SECONDS environment variables.
+     * @return the configured circuit breaker
+     */
+    public static HostCircuitBreaker fromEnv() {
+        return new HostCircuitBreaker(
+                AppConfig.getInt("CHECK_CIRCUIT_FAILURE_THRESHOLD", 3),
+                Duration.ofSeconds(AppConfig.getLong("CHECK_CIRCUIT_OPEN_SECONDS", 60)),
+                Duration.ofSeconds(AppConfig.getLong("CHECK_NEGATIVE_CACHE_SECONDS", 10)));
+    }
+
+    /**
+     * Decides whether the URL's host may be contacted now. In the half-open state only the caller that
+     * claims the probe gets true; the probe claim expires after the open duration in case it never reports.
+     * @param url the absolute URL about to be fetched
+     * @return true if the request may go ahead, false if the check should be skipped
+     */
+    public boolean allowRequest(String url) {
+        Circuit circuit = circuits.get(HostRateLimiter.hostOf(url));
+        if (circuit == null) {
+            return true;
+        }
+        long now = System.nanoTime();
+        if (circuit.negativeUntil - now > 0) {
+            return false;
+        }
+        if (circuit.failures.get() < failureThreshold) {
+            return true;
+        }
+        if (circuit.openUntil - now > 0) {
+            return false;
+        }
+        long probeUntil = circuit.probeUntil.get();
+        return probeUntil - now <= 0 && circuit.probeUntil.compareAndSet(probeUntil, now + openNanos);
+    }
+
+    /**
+     * Closes the host's circuit after a request that got a response.
+     * @param url the fetched URL
+     */
+    public void recordSuccess(String url) {
+        circuits.remove(HostRateLimiter.hostOf(url));
+    }
+
+    /**
+     * Counts a failed request towards opening the host's circuit.
+     * @param url the fetched URL
+     * @param error what the request failed with
+     */
+    public void recordFailure(String url, Throwable error) {
+        String host = HostRateLimiter.hostOf(url);
+        long now = System.nanoTime();
+        Circuit circuit = circuits.computeIfAbsent(host, key -> new Circuit(now));
+        if (isUnreachable(error)) {
+            circuit.negativeUntil = now + negativeTtlNanos;
+        }
+        int failures = circuit.failures.incrementAndGet();
+        if (failures >= failureThreshold) {
+            circuit.openUntil = now + openNanos;
+            if (failures == failureThreshold) {
+                log.warn("Circuit opened for host {} after {} failures: {}", host, failures, error.toString());
+            }
+        }
+    }
+
+    /**
+     * Returns whether checks of the URL's host are currently being skipped.
+     * @param url an absolute URL of the host
+     * @return true if the circuit is open or the host is in the negative cache
+     */
+    public boolean isOpen(String url) {
+        Circuit circuit = circuits.get(HostRateLimiter.hostOf(url));
+        if (circuit == null) {
+            return false;
+        }
+        long now = System.nanoTime();
+        return circuit.negativeUntil - now > 0
+                || circuit.failures.get() >= failureThreshold && circuit.openUntil - now > 0;
+    }
+
+    // DNS and connect failures say nothing will answer for a while; timeouts and resets may be transient
+    private static boolean isUnreachable(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof UnknownHostException || cause instanceof UnresolvedAddressException
+                    || cause instanceof ConnectException || cause instanceof HttpConnectTimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class Circuit {
+        private final AtomicInteger failures = new AtomicInteger();
+        private final AtomicLong probeUntil;
+        private volatile long openUntil;
+        private volatile long negativeUntil;
+
+        private Circuit(long now) {
+            this.probeUntil = new AtomicLong(now);
+            this.openUntil = now;
+            this.negativeUntil = now;
+        }
+    }
+}
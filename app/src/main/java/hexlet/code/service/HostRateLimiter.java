@@ -0,0 +1,217 @@
+package hexlet.code.service;
+
+import hexlet.code.AppConfig;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps outbound checks polite towards each origin host: a token bucket limits how often a host is contacted
+ * and a semaphore caps how many checks of it are in flight. Hosts are compared without scheme and port, so
+ * {@code http://example.com} and {@code https://example.com:8443} share one budget.
+ * Per-host state lives in a {@link ConcurrentHashMap}; the bucket itself is a single atomic timestamp updated
+ * by compare-and-set, so waiting happens outside any monitor and only the count of a host's users is updated
+ * under the map's lock for that host. A host's state is dropped once no check uses it and its bucket is full
+ * again, when it is no different from fresh state, so the map only holds hosts checked recently; hosts whose
+ * bucket was still refilling when their last check ended are swept out once a minute.
+ */
+public class HostRateLimiter {
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final Limits defaults;
+    private final Map<String, Limits> overrides;
+    private final ConcurrentHashMap<String, HostGate> gates = new ConcurrentHashMap<>();
+    private final AtomicLong nextSweepAt = new AtomicLong(System.nanoTime() + SWEEP_INTERVAL_NANOS);
+
+    /**
+     * Creates a limiter.
+     * @param defaults the limits of hosts without an override
+     * @param overrides per-host limits keyed by lower-case host name
+     */
+    public HostRateLimiter(Limits defaults, Map<String, Limits> overrides) {
+        this.defaults = defaults;
+        this.overrides = Map.copyOf(overrides);
+    }
+
+    /**
+     * Creates a limiter configured with the CHECK_HOST_RATE_PER_SECOND, CHECK_HOST_BURST and
+     * CHECK_HOST_MAX_IN_FLIGHT environment variables, with per-host overrides from CHECK_HOST_LIMITS given as
+     * {@code host=rate/burst/maxInFlight} entries separated by commas. A rate of 0 disables rate limiting.
+     * @return the configured limiter
+     */
+    public static HostRateLimiter fromEnv() {
+        Limits defaults = new Limits(
+                Double.parseDouble(AppConfig.getString("CHECK_HOST_RATE_PER_SECOND", "2")),
+                AppConfig.getInt("CHECK_HOST_BURST", 4),
+                AppConfig.getInt("CHECK_HOST_MAX_IN_FLIGHT", 4));
+        return new HostRateLimiter(defaults, parseOverrides(AppConfig.getString("CHECK_HOST_LIMITS", "")));
+    }
+
+    /**
+     * Waits until the URL's host may be contacted and takes one of its in-flight slots.
+     * @param url the absolute URL about to be fetched
+     * @return the permit, to be closed once the exchange, including reading the body, is over
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public Permit acquire(String url) throws InterruptedException {
+        String host = hostOf(url);
+        sweepIfDue();
+        HostGate gate = gates.compute(host, (key, current) -> {
+            HostGate entered = current != null ? current : new HostGate(overrides.getOrDefault(key, defaults));
+            entered.users++;
+            return entered;
+        });
+        try {
+            gate.inFlight.acquire();
+        } catch (InterruptedException e) {
+            leave(host);
+            throw e;
+        }
+        try {
+            gate.awaitToken();
+        } catch (InterruptedException | RuntimeException e) {
+            gate.inFlight.release();
+            leave(host);
+            throw e;
+        }
+        return () -> {
+            gate.inFlight.release();
+            leave(host);
+        };
+    }
+
+    /**
+     * Returns the number of checks of the URL's host currently holding a permit.
+     * @param url an absolute URL of the host
+     * @return the number of in-flight checks
+     */
+    public int getInFlight(String url) {
+        HostGate gate = gates.get(hostOf(url));
+        return gate == null ? 0 : gate.limits.maxInFlight() - gate.inFlight.availablePermits();
+    }
+
+    /**
+     * Returns the number of hosts whose limiter state is currently kept.
+     * @return the number of tracked hosts
+     */
+    public int getTrackedHosts() {
+        return gates.size();
+    }
+
+    // Runs under the map's lock for the host, like every change of a gate's user count
+    private void leave(String host) {
+        gates.computeIfPresent(host, (key, gate) -> --gate.users == 0 && gate.isIdle(System.nanoTime()) ? null : gate);
+    }
+
+    // Gates left while their bucket was still refilling are dropped by a later sweep
+    private void sweepIfDue() {
+        long now = System.nanoTime();
+        long due = nextSweepAt.get();
+        if (now - due < 0 || !nextSweepAt.compareAndSet(due, now + SWEEP_INTERVAL_NANOS)) {
+            return;
+        }
+        for (String host : gates.keySet()) {
+            gates.computeIfPresent(host, (key, gate) -> gate.users == 0 && gate.isIdle(now) ? null : gate);
+        }
+    }
+
+    static String hostOf(String url) {
+        try {
+            String host = URI.create(url).getHost();
+            return host == null ? url : host.toLowerCase(Locale.ROOT);
+        } catch (IllegalArgumentException e) {
+            return url;
+        }
+    }
+
+    static Map<String, Limits> parseOverrides(String value) {
+        Map<String, Limits> overrides = new HashMap<>();
+        for (String entry : value.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            String[] hostAndLimits = entry.trim().split("=", 2);
+            String[] parts = hostAndLimits.length == 2 ? hostAndLimits[1].split("/") : new String[0];
+            if (parts.length != 3) {
+                throw new IllegalArgumentException("Invalid CHECK_HOST_LIMITS entry: " + entry);
+            }
+            overrides.put(hostAndLimits[0].trim().toLowerCase(Locale.ROOT), new Limits(
+                    Double.parseDouble(parts[0].trim()), Integer.parseInt(parts[1].trim()),
+                    Integer.parseInt(parts[2].trim())));
+        }
+        return overrides;
+    }
+
+    /**
+     * Limits for one host.
+     * @param permitsPerSecond the sustained request rate, or 0 for no rate limit
+     * @param burst how many requests may start back to back after the host has been idle
+     * @param maxInFlight the maximum number of concurrent requests
+     */
+    public record Limits(double permitsPerSecond, int burst, int maxInFlight) {
+        public Limits {
+            if (permitsPerSecond < 0 || burst < 1 || maxInFlight < 1) {
+                throw new IllegalArgumentException("Invalid host limits: rate=" + permitsPerSecond
+                        + ", burst=" + burst + ", maxInFlight=" + maxInFlight);
+            }
+        }
+    }
+
+    /**
+     * Held while a request to the host is in flight.
+     */
+    @FunctionalInterface
+    public interface Permit extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private static final class HostGate {
+        private final Limits limits;
+        private final Semaphore inFlight;
+        private final long intervalNanos;
+        private final long burstNanos;
+        // Theoretical arrival time of the next request (GCRA): each request pushes it one interval further,
+        // and a request may start once it is no more than the burst allowance ahead of now
+        private final AtomicLong nextFreeAt = new AtomicLong(System.nanoTime());
+        // Checks waiting for or holding a permit; only changed inside the map's compute calls for the host
+        private int users;
+
+        private HostGate(Limits limits) {
+            this.limits = limits;
+            this.inFlight = new Semaphore(limits.maxInFlight(), true);
+            this.intervalNanos = limits.permitsPerSecond() > 0
+                    ? (long) (TimeUnit.SECONDS.toNanos(1) / limits.permitsPerSecond())
+                    : 0;
+            this.burstNanos = intervalNanos * (limits.burst() - 1);
+        }
+
+        private boolean isIdle(long now) {
+            return nextFreeAt.get() - now <= 0;
+        }
+
+        private void awaitToken() throws InterruptedException {
+            if (intervalNanos == 0) {
+                return;
+            }
+            long now;
+            long current;
+            long slot;
+            do {
+                now = System.nanoTime();
+                current = nextFreeAt.get();
+                slot = Math.max(current, now);
+            } while (!nextFreeAt.compareAndSet(current, slot + intervalNanos));
+            long waitNanos = slot - burstNanos - now;
+            if (waitNanos > 0) {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            }
+        }
+    }
+}
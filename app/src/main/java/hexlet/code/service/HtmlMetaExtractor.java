@@ -0,0 +1,357 @@
+package hexlet.code.service;
+
+import org.jsoup.parser.Parser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Extracts the title, the first h1 and the meta description from an HTML stream without building a DOM.
+ * The stream is scanned once with fixed-size buffers and reading stops as soon as all three fields are found,
+ * once the byte budget is spent, or once the scan has gone far enough past the opening body tag,
+ * so memory use does not depend on the page size. Field values follow Jsoup semantics:
+ * entities are decoded, title and h1 whitespace is normalized, and an empty title counts as missing.
+ */
+public final class HtmlMetaExtractor {
+    private static final int MAX_FIELD_CHARS = 4096;
+    private static final int MAX_TAG_CHARS = 8192;
+    private static final int PUSHBACK_SIZE = 8;
+    private static final int BUFFER_SIZE = 8192;
+    private static final Pattern CHARSET = Pattern.compile("charset\\s*=\\s*\"?([^\\s;\"]+)",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern ATTRIBUTE = Pattern.compile(
+            "([^\\s=/>\"']+)(?:\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)'|([^\\s>]+)))?");
+
+    private final Reader reader;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private final char[] pushback = new char[PUSHBACK_SIZE];
+    private int bufferPosition;
+    private int bufferLimit;
+    private int pushbackCount;
+    private final long bodyScanChars;
+    private long charsRead;
+    private long bodyStartedAt = -1;
+    private String title;
+    private String h1;
+    private String description;
+
+    private HtmlMetaExtractor(Reader reader, long bodyScanChars) {
+        this.reader = reader;
+        this.bodyScanChars = bodyScanChars;
+    }
+
+    /**
+     * Reads page fields from the stream. At most {@code maxBytes} bytes are consumed;
+     * the caller stays responsible for closing the stream.
+     * @param in the response body
+     * @param charset the charset declared by the response
+     * @param maxBytes the maximum number of bytes to read
+     * @param bodyScanChars how many characters after the opening body tag to scan for a missing h1
+     * @return the extracted fields
+     * @throws IOException if reading the stream fails
+     */
+    public static PageMeta extract(InputStream in, Charset charset, long maxBytes, long bodyScanChars)
+            throws IOException {
+        Reader reader = new InputStreamReader(new BoundedInputStream(in, maxBytes), charset);
+        HtmlMetaExtractor extractor = new HtmlMetaExtractor(reader, bodyScanChars);
+        extractor.scan();
+        String title = extractor.title == null || extractor.title.isEmpty() ? null : extractor.title;
+        return new PageMeta(title, extractor.h1, extractor.description);
+    }
+
+    /**
+     * Returns the charset declared in a Content-Type header value, or UTF-8 when none is declared or supported.
+     * @param contentType the Content-Type header value, may be null
+     * @return the charset to decode the body with
+     */
+    public static Charset charsetOf(String contentType) {
+        if (contentType != null) {
+            Matcher matcher = CHARSET.matcher(contentType);
+            if (matcher.find()) {
+                try {
+                    return Charset.forName(matcher.group(1));
+                } catch (IllegalArgumentException e) {
+                    return StandardCharsets.UTF_8;
+                }
+            }
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+    private void scan() throws IOException {
+        StringBuilder h1Text = null;
+        int c;
+        while (!isDone() && (c = read()) != -1) {
+            if (c != '<') {
+                if (h1Text != null) {
+                    append(h1Text, (char) c);
+                }
+                continue;
+            }
+            int next = read();
+            if (next == -1) {
+                break;
+            }
+            if (next == '!') {
+                skipDeclarationOrComment();
+            } else if (next == '/') {
+                String name = readTagName();
+                skipTagRest();
+                if (h1Text != null && name.equals("h1")) {
+                    h1 = normalizeWhitespace(Parser.unescapeEntities(h1Text.toString(), false));
+                    h1Text = null;
+                }
+            } else if (Character.isLetter(next)) {
+                unread(next);
+                String name = readTagName();
+                String attributes = readTagRest();
+                switch (name) {
+                    case "title" -> {
+                        String text = readRawText("title", title == null);
+                        if (title == null) {
+                            title = normalizeWhitespace(Parser.unescapeEntities(text, false));
+                        }
+                    }
+                    case "script", "style", "textarea", "noscript" -> readRawText(name, false);
+                    case "meta" -> readMeta(attributes);
+                    case "body" -> bodyStartedAt = bodyStartedAt < 0 ? charsRead : bodyStartedAt;
+                    case "br" -> {
+                        if (h1Text != null) {
+                            append(h1Text, ' ');
+                        }
+                    }
+                    case "h1" -> {
+                        if (h1 == null && h1Text == null) {
+                            h1Text = new StringBuilder();
+                        }
+                    }
+                    default -> {
+                    }
+                }
+            } else {
+                if (h1Text != null) {
+                    append(h1Text, '<');
+                }
+                unread(next);
+            }
+        }
+        if (h1Text != null && h1 == null) {
+            h1 = normalizeWhitespace(Parser.unescapeEntities(h1Text.toString(), false));
+        }
+    }
+
+    private boolean isDone() {
+        if (title != null && h1 != null && description != null) {
+            return true;
+        }
+        return bodyStartedAt >= 0 && h1 != null
+                || bodyStartedAt >= 0 && charsRead - bodyStartedAt > bodyScanChars;
+    }
+
+    private void readMeta(String attributes) {
+        if (description != null) {
+            return;
+        }
+        Map<String, String> values = parseAttributes(attributes);
+        String name = values.get("name");
+        if (name != null && name.equalsIgnoreCase("description")) {
+            String content = values.getOrDefault("content", "");
+            description = Parser.unescapeEntities(truncate(content), true);
+        }
+    }
+
+    private static Map<String, String> parseAttributes(String attributes) {
+        Map<String, String> values = new HashMap<>();
+        Matcher matcher = ATTRIBUTE.matcher(attributes);
+        while (matcher.find()) {
+            String key = matcher.group(1).toLowerCase(Locale.ROOT);
+            String value = matcher.group(2) != null ? matcher.group(2)
+                    : matcher.group(3) != null ? matcher.group(3)
+                    : matcher.group(4) != null ? matcher.group(4) : "";
+            values.putIfAbsent(key, value);
+        }
+        return values;
+    }
+
+    private String readTagName() throws IOException {
+        StringBuilder name = new StringBuilder();
+        int c;
+        while ((c = read()) != -1) {
+            if (Character.isWhitespace(c) || c == '>' || c == '/') {
+                unread(c);
+                break;
+            }
+            if (name.length() < MAX_TAG_CHARS) {
+                name.append(Character.toLowerCase((char) c));
+            }
+        }
+        return name.toString();
+    }
+
+    private String readTagRest() throws IOException {
+        StringBuilder rest = new StringBuilder();
+        char quote = 0;
+        int c;
+        while ((c = read()) != -1) {
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = (char) c;
+            } else if (c == '>') {
+                break;
+            }
+            if (rest.length() < MAX_TAG_CHARS) {
+                rest.append((char) c);
+            }
+        }
+        return rest.toString();
+    }
+
+    private void skipTagRest() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c != -1 && c != '>');
+    }
+
+    private void skipDeclarationOrComment() throws IOException {
+        int first = read();
+        int second = first == '-' ? read() : -1;
+        if (first == '-' && second == '-') {
+            int dashes = 0;
+            int c;
+            while ((c = read()) != -1) {
+                if (c == '>' && dashes >= 2) {
+                    return;
+                }
+                dashes = c == '-' ? dashes + 1 : 0;
+            }
+            return;
+        }
+        if (second != -1) {
+            unread(second);
+        }
+        if (first != -1 && first != '>') {
+            skipTagRest();
+        }
+    }
+
+    // Reads raw text up to the closing tag with the given name, as for title, script and style elements.
+    private String readRawText(String name, boolean keep) throws IOException {
+        String endTag = "</" + name;
+        StringBuilder text = new StringBuilder();
+        int matched = 0;
+        int c;
+        while ((c = read()) != -1) {
+            char lower = Character.toLowerCase((char) c);
+            if (lower == endTag.charAt(matched)) {
+                matched++;
+                if (matched == endTag.length()) {
+                    skipTagRest();
+                    break;
+                }
+                continue;
+            }
+            if (keep) {
+                for (int i = 0; i < matched; i++) {
+                    append(text, endTag.charAt(i));
+                }
+            }
+            matched = lower == '<' ? 1 : 0;
+            if (keep && matched == 0) {
+                append(text, (char) c);
+            }
+        }
+        return text.toString();
+    }
+
+    // Buffers and pushes back by hand rather than through PushbackReader/BufferedReader: their reads hold a
+    // monitor while blocking on the network, which pins the carrier of the virtual thread running the check
+    private int read() throws IOException {
+        if (pushbackCount > 0) {
+            return pushback[--pushbackCount];
+        }
+        if (bufferPosition == bufferLimit) {
+            int n = reader.read(buffer, 0, buffer.length);
+            if (n <= 0) {
+                return -1;
+            }
+            bufferPosition = 0;
+            bufferLimit = n;
+        }
+        charsRead++;
+        return buffer[bufferPosition++];
+    }
+
+    private void unread(int c) throws IOException {
+        if (c == -1) {
+            return;
+        }
+        if (pushbackCount == pushback.length) {
+            throw new IOException("Pushback buffer overflow");
+        }
+        pushback[pushbackCount++] = (char) c;
+    }
+
+    private static void append(StringBuilder builder, char c) {
+        if (builder.length() < MAX_FIELD_CHARS) {
+            builder.append(c);
+        }
+    }
+
+    private static String truncate(String value) {
+        return value.length() > MAX_FIELD_CHARS ? value.substring(0, MAX_FIELD_CHARS) : value;
+    }
+
+    private static String normalizeWhitespace(String value) {
+        return value.replaceAll("\\s+", " ").trim();
+    }
+
+    /**
+     * Input stream that reports end of stream once the byte budget is spent.
+     */
+    private static final class BoundedInputStream extends InputStream {
+        private final InputStream in;
+        private long remaining;
+
+        private BoundedInputStream(InputStream in, long maxBytes) {
+            this.in = in;
+            this.remaining = maxBytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b != -1) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = in.read(buffer, offset, (int) Math.min(length, Math.min(remaining, BUFFER_SIZE)));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+    }
+}
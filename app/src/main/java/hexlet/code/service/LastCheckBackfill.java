@@ -0,0 +1,50 @@
+package hexlet.code.service;
+
+import hexlet.code.AppConfig;
+import hexlet.code.repository.UrlRepository;
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.SQLException;
+
+/**
+ * Fills the last-check summary columns on urls from url_checks for data stored before the columns existed.
+ * URLs are processed in id ranges, each range in its own short statement, so the job can run
+ * against a live database without holding locks on the whole table; it is safe to re-run.
+ */
+@Slf4j
+public class LastCheckBackfill {
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    private final UrlRepository urlRepository;
+    private final int batchSize;
+
+    public LastCheckBackfill(UrlRepository urlRepository, int batchSize) {
+        this.urlRepository = urlRepository;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Creates a backfill job with the batch size from the LAST_CHECK_BACKFILL_BATCH environment variable.
+     * @param urlRepository the repository to update
+     * @return the job
+     */
+    public static LastCheckBackfill fromEnv(UrlRepository urlRepository) {
+        return new LastCheckBackfill(urlRepository, AppConfig.getInt("LAST_CHECK_BACKFILL_BATCH", DEFAULT_BATCH_SIZE));
+    }
+
+    /**
+     * Recomputes the summary for every URL.
+     * @return the number of updated URLs
+     * @throws SQLException if a database error occurs
+     */
+    public long run() throws SQLException {
+        long maxId = urlRepository.findMaxId();
+        long updated = 0;
+        for (long afterId = 0; afterId < maxId; afterId += batchSize) {
+            updated += urlRepository.refreshLastChecks(afterId, Math.min(afterId + batchSize, maxId));
+            log.debug("Backfilled last checks up to id {}", Math.min(afterId + batchSize, maxId));
+        }
+        log.info("Backfilled last checks for {} URLs", updated);
+        return updated;
+    }
+}
@@ -0,0 +1,181 @@
+package hexlet.code.service;
+
+import hexlet.code.AppConfig;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fetches pages for URL checks with one shared {@link HttpClient}.
+ * The client negotiates HTTP/2 where the server supports it and keeps idle connections in its
+ * per-host pool, so repeated checks of the same site reuse TCP/TLS connections instead of opening new ones.
+ * The client exposes no hooks for connection setup, so DNS, connect and TLS times of an exchange are not
+ * measurable here; they are part of the time to first byte whenever a new connection is opened.
+ */
+@Slf4j
+public class PageFetcher implements AutoCloseable {
+    private static final String USER_AGENT = "hexlet-page-analyzer";
+
+    private final HttpClient client;
+    private final ExecutorService executor;
+    private final Duration readTimeout;
+    private final Duration totalTimeout;
+
+    public PageFetcher(Duration connectTimeout, Duration readTimeout, Duration totalTimeout) {
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(connectTimeout)
+                .executor(executor)
+                .build();
+        this.readTimeout = readTimeout;
+        this.totalTimeout = totalTimeout;
+    }
+
+    /**
+     * Creates a fetcher configured with the FETCH_CONNECT_TIMEOUT_MS, FETCH_READ_TIMEOUT_MS,
+     * FETCH_TOTAL_TIMEOUT_MS and FETCH_KEEPALIVE_SECONDS environment variables.
+     * @return the configured fetcher
+     */
+    public static PageFetcher fromEnv() {
+        String keepAlive = AppConfig.getString("FETCH_KEEPALIVE_SECONDS", null);
+        if (keepAlive != null && System.getProperty("jdk.httpclient.keepalive.timeout") == null) {
+            System.setProperty("jdk.httpclient.keepalive.timeout", keepAlive);
+        }
+        return new PageFetcher(
+                Duration.ofMillis(AppConfig.getLong("FETCH_CONNECT_TIMEOUT_MS", 2000)),
+                Duration.ofMillis(AppConfig.getLong("FETCH_READ_TIMEOUT_MS", 2000)),
+                Duration.ofMillis(AppConfig.getLong("FETCH_TOTAL_TIMEOUT_MS", 5000)));
+    }
+
+    /**
+     * Starts fetching the page without blocking the caller.
+     * The read timeout bounds the wait for the response headers; the returned future also fails
+     * with a timeout if the response is not complete within the total timeout. For streaming body handlers
+     * the response is complete once the headers arrive, so use {@link #fetchStream(String, Map)} to keep
+     * the total timeout while reading the body.
+     * @param url the absolute URL to fetch
+     * @param bodyHandler how to consume the response body
+     * @param <T> the body type
+     * @return a future completed with the response
+     */
+    public <T> CompletableFuture<HttpResponse<T>> fetchAsync(String url, HttpResponse.BodyHandler<T> bodyHandler) {
+        return fetchAsync(url, Map.of(), bodyHandler);
+    }
+
+    /**
+     * Starts fetching the page with extra request headers, such as conditional-request validators,
+     * under the same timeouts as {@link #fetchAsync(String, HttpResponse.BodyHandler)}.
+     * @param url the absolute URL to fetch
+     * @param headers the extra request headers
+     * @param bodyHandler how to consume the response body
+     * @param <T> the body type
+     * @return a future completed with the response
+     */
+    public <T> CompletableFuture<HttpResponse<T>> fetchAsync(String url, Map<String, String> headers,
+                                                             HttpResponse.BodyHandler<T> bodyHandler) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url))
+                .timeout(readTimeout)
+                .header("User-Agent", USER_AGENT)
+                .GET();
+        headers.forEach(builder::header);
+        return client.sendAsync(builder.build(), bodyHandler)
+                .orTimeout(totalTimeout.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts fetching the page as a stream under one deadline for the whole exchange: the returned future fails
+     * with a timeout if the headers take longer than the total timeout, and reading the body fails with an
+     * {@link HttpTimeoutException} once the rest of it is spent, even while a read is blocked on a stalled server.
+     * @param url the absolute URL to fetch
+     * @param headers the extra request headers, such as conditional-request validators
+     * @return a future completed with the response once its headers have arrived
+     */
+    public CompletableFuture<HttpResponse<InputStream>> fetchStream(String url, Map<String, String> headers) {
+        long deadline = System.nanoTime() + totalTimeout.toNanos();
+        return fetchAsync(url, headers, info -> HttpResponse.BodySubscribers.mapping(
+                HttpResponse.BodySubscribers.ofInputStream(), body -> new DeadlineInputStream(body, deadline)));
+    }
+
+    @Override
+    public void close() {
+        client.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    /**
+     * Input stream that fails with a timeout once the deadline has passed. A timer closes the underlying stream
+     * at the deadline, which wakes a read that is blocked waiting for more of the body.
+     */
+    private static final class DeadlineInputStream extends InputStream {
+        private final InputStream in;
+        private final long deadline;
+        private final CompletableFuture<Void> timer = new CompletableFuture<>();
+        private volatile boolean expired;
+
+        private DeadlineInputStream(InputStream in, long deadline) {
+            this.in = in;
+            this.deadline = deadline;
+            timer.completeOnTimeout(null, Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS)
+                    .thenRun(this::expire);
+        }
+
+        @Override
+        public int read() throws IOException {
+            checkDeadline();
+            try {
+                return in.read();
+            } catch (IOException e) {
+                throw expired ? timeout() : e;
+            }
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            checkDeadline();
+            try {
+                return in.read(buffer, offset, length);
+            } catch (IOException e) {
+                throw expired ? timeout() : e;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            timer.cancel(false);
+            in.close();
+        }
+
+        private void checkDeadline() throws HttpTimeoutException {
+            if (expired || System.nanoTime() - deadline >= 0) {
+                throw timeout();
+            }
+        }
+
+        private void expire() {
+            expired = true;
+            try {
+                in.close();
+            } catch (IOException e) {
+                log.debug("Closing a response body at its deadline failed: {}", e.toString());
+            }
+        }
+
+        private static HttpTimeoutException timeout() {
+            return new HttpTimeoutException("Response body not read within the total timeout");
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package hexlet.code.service;
+
+import lombok.Getter;
+
+/**
+ * The SEO fields a URL check records from a page; each one is null when the page does not have it.
+ */
+@Getter
+public class PageMeta {
+    private final String title;
+    private final String h1;
+    private final String description;
+
+    public PageMeta(String title, String h1, String description) {
+        this.title = title;
+        this.h1 = h1;
+        this.description = description;
+    }
+}
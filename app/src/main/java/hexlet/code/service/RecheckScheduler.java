@@ -0,0 +1,166 @@
+package hexlet.code.service;
+
+import hexlet.code.AppConfig;
+import hexlet.code.model.Url;
+import hexlet.code.model.UrlWithLastCheck;
+import hexlet.code.repository.UrlRepository;
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically re-checks every URL in the background.
+ * Due URLs are computed from the last check stored in the database on every tick, so the schedule
+ * survives restarts. Never-checked and failed URLs go first, and each submission to the {@link CheckQueue}
+ * is delayed by a random jitter so that many due checks do not fire at the same instant.
+ */
+@Slf4j
+public class RecheckScheduler {
+    private final UrlRepository urlRepository;
+    private final CheckQueue checkQueue;
+    private final Duration interval;
+    private final Duration failedRetryInterval;
+    private final Duration tick;
+    private final Duration jitter;
+    private final int batchSize;
+    private final Set<Long> scheduled = ConcurrentHashMap.newKeySet();
+    private volatile long lagSeconds;
+    private volatile int lastDueCount;
+    private volatile Instant lastTickAt;
+    private volatile ScheduledExecutorService executor;
+
+    public RecheckScheduler(UrlRepository urlRepository, CheckQueue checkQueue, Duration interval,
+                            Duration failedRetryInterval, Duration tick, Duration jitter, int batchSize) {
+        this.urlRepository = urlRepository;
+        this.checkQueue = checkQueue;
+        this.interval = interval;
+        this.failedRetryInterval = failedRetryInterval;
+        this.tick = tick;
+        this.jitter = jitter;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Creates a scheduler configured with the RECHECK_INTERVAL_MINUTES, RECHECK_FAILED_RETRY_MINUTES,
+     * RECHECK_TICK_SECONDS, RECHECK_JITTER_SECONDS and RECHECK_BATCH_SIZE environment variables.
+     * The scheduler is disabled unless RECHECK_INTERVAL_MINUTES is positive.
+     * @param urlRepository the URL repository
+     * @param checkQueue the queue the due checks are submitted to
+     * @return the configured scheduler
+     */
+    public static RecheckScheduler fromEnv(UrlRepository urlRepository, CheckQueue checkQueue) {
+        long intervalMinutes = AppConfig.getLong("RECHECK_INTERVAL_MINUTES", 0);
+        long tickSeconds = AppConfig.getLong("RECHECK_TICK_SECONDS", 30);
+        return new RecheckScheduler(urlRepository, checkQueue,
+                Duration.ofMinutes(intervalMinutes),
+                Duration.ofMinutes(AppConfig.getLong("RECHECK_FAILED_RETRY_MINUTES",
+                        Math.max(intervalMinutes / 4, 1))),
+                Duration.ofSeconds(tickSeconds),
+                Duration.ofSeconds(AppConfig.getLong("RECHECK_JITTER_SECONDS", tickSeconds)),
+                AppConfig.getInt("RECHECK_BATCH_SIZE", 200));
+    }
+
+    public boolean isEnabled() {
+        return !interval.isZero() && !interval.isNegative();
+    }
+
+    public synchronized void start() {
+        if (!isEnabled() || executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "recheck-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::safeTick, 0, tick.toMillis(), TimeUnit.MILLISECONDS);
+        log.info("Re-check scheduler started: interval={}, failedRetryInterval={}, tick={}, jitter={}",
+                interval, failedRetryInterval, tick, jitter);
+    }
+
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Returns how far behind schedule the most overdue URL was at the last tick.
+     * @return the lag in seconds, 0 when nothing is overdue
+     */
+    public long getLagSeconds() {
+        return lagSeconds;
+    }
+
+    public int getLastDueCount() {
+        return lastDueCount;
+    }
+
+    public Instant getLastTickAt() {
+        return lastTickAt;
+    }
+
+    private void safeTick() {
+        try {
+            tick();
+        } catch (Exception e) {
+            log.error("Re-check scheduler tick failed: {}", e.getMessage());
+        }
+    }
+
+    private void tick() throws SQLException {
+        ScheduledExecutorService currentExecutor = executor;
+        if (currentExecutor == null) {
+            return;
+        }
+        Instant now = Instant.now();
+        List<UrlWithLastCheck> due = urlRepository.findDueForRecheck(
+                Timestamp.from(now.minus(interval)), Timestamp.from(now.minus(failedRetryInterval)), batchSize);
+        long maxLag = 0;
+        for (UrlWithLastCheck candidate : due) {
+            maxLag = Math.max(maxLag, Duration.between(dueTime(candidate), now).toSeconds());
+            if (checkQueue.isPending(candidate.getId()) || !scheduled.add(candidate.getId())) {
+                continue;
+            }
+            Url url = new Url(candidate.getName(), candidate.getCreatedAt());
+            url.setId(candidate.getId());
+            long delay = jitter.isZero() ? 0 : ThreadLocalRandom.current().nextLong(jitter.toMillis());
+            currentExecutor.schedule(() -> submit(url), delay, TimeUnit.MILLISECONDS);
+        }
+        lagSeconds = maxLag;
+        lastDueCount = due.size();
+        lastTickAt = now;
+        log.info("Re-check scheduler tick: {} URLs due, lag {}s", due.size(), maxLag);
+    }
+
+    private void submit(Url url) {
+        try {
+            CheckQueue.SubmitResult result = checkQueue.submit(url);
+            if (result == CheckQueue.SubmitResult.REJECTED) {
+                log.warn("Check queue rejected scheduled re-check for URL {}", url.getName());
+            }
+        } finally {
+            scheduled.remove(url.getId());
+        }
+    }
+
+    private Instant dueTime(UrlWithLastCheck url) {
+        if (!url.hasLastCheck()) {
+            return url.getCreatedAt().toInstant();
+        }
+        Instant lastCheckAt = url.getLastCheckCreatedAt().toInstant();
+        boolean failed = url.getLastCheckStatusCode() != null && url.getLastCheckStatusCode() == 0;
+        return lastCheckAt.plus(failed ? failedRetryInterval : interval);
+    }
+}
@@ -1,27 +1,93 @@
 package hexlet.code.service;
 
+import hexlet.code.AppConfig;
+import hexlet.code.metrics.AppMetrics;
+import hexlet.code.model.CheckOutcome;
 import hexlet.code.model.Url;
 import hexlet.code.model.UrlCheck;
 import hexlet.code.repository.UrlCheckRepository;
-import kong.unirest.HttpResponse;
-import kong.unirest.Unirest;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
+import hexlet.code.repository.UrlCheckWriteBuffer;
+import lombok.extern.slf4j.Slf4j;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpClient;
+import java.net.http.HttpResponse;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.time.Duration;
 import java.time.Instant;
-import java.util.Objects;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 
+@Slf4j
 public class UrlCheckService {
+    private static final int DRAIN_LIMIT_BYTES = 64 * 1024;
+    private static final int HTTP_NOT_MODIFIED = 304;
+    private static final int MAX_ETAG_LENGTH = 512;
+    private static final int MAX_LAST_MODIFIED_LENGTH = 64;
+
     private final UrlCheckRepository urlCheckRepository;
+    private final UrlCheckWriteBuffer writeBuffer;
+    private final PageFetcher pageFetcher;
+    private final HostRateLimiter hostRateLimiter;
+    private final HostCircuitBreaker circuitBreaker;
+    private final Settings settings;
+    private final ConcurrentHashMap<Long, CompletableFuture<UrlCheck>> inFlight = new ConcurrentHashMap<>();
 
-    public UrlCheckService(UrlCheckRepository urlCheckRepository) {
+    public UrlCheckService(UrlCheckRepository urlCheckRepository, UrlCheckWriteBuffer writeBuffer,
+                           PageFetcher pageFetcher, HostRateLimiter hostRateLimiter,
+                           HostCircuitBreaker circuitBreaker, Settings settings) {
         this.urlCheckRepository = urlCheckRepository;
+        this.writeBuffer = writeBuffer;
+        this.pageFetcher = pageFetcher;
+        this.hostRateLimiter = hostRateLimiter;
+        this.circuitBreaker = circuitBreaker;
+        this.settings = settings;
+    }
+
+    /**
+     * Creates a check service that saves every check on its own and whose host limits, circuit breaker and
+     * settings come from the environment, as described for {@link HostRateLimiter#fromEnv()},
+     * {@link HostCircuitBreaker#fromEnv()} and {@link Settings#fromEnv()}.
+     * @param urlCheckRepository the URL check repository
+     * @param pageFetcher the fetcher used to download pages
+     */
+    public UrlCheckService(UrlCheckRepository urlCheckRepository, PageFetcher pageFetcher) {
+        this(urlCheckRepository, null, pageFetcher, HostRateLimiter.fromEnv(), HostCircuitBreaker.fromEnv());
+    }
+
+    /**
+     * Creates a check service whose settings come from the environment, as described for
+     * {@link Settings#fromEnv()}.
+     * @param urlCheckRepository the URL check repository
+     * @param writeBuffer the buffer checks are saved through, or null to save each check on its own
+     * @param pageFetcher the fetcher used to download pages
+     * @param hostRateLimiter the limiter every fetch waits on, shared by all checks of the process
+     * @param circuitBreaker the circuit breaker that skips checks of hosts that keep failing
+     */
+    public UrlCheckService(UrlCheckRepository urlCheckRepository, UrlCheckWriteBuffer writeBuffer,
+                           PageFetcher pageFetcher, HostRateLimiter hostRateLimiter,
+                           HostCircuitBreaker circuitBreaker) {
+        this(urlCheckRepository, writeBuffer, pageFetcher, hostRateLimiter, circuitBreaker, Settings.fromEnv());
     }
 
     /**
      * Checks the URL and saves the result to the database.
+     * Concurrent calls for the same URL are coalesced: the first one fetches and saves, the others wait for it
+     * and return the same check. When a minimum re-check interval is set and the URL's newest check is younger
+     * than that, the newest check is returned without fetching again.
      * This method is not intended for overriding; for custom check logic,
      * extend this class and use composition to modify behavior safely.
      * @param url the URL to check
@@ -29,38 +95,336 @@ public class UrlCheckService {
      * @throws SQLException if a database error occurs
      */
     public UrlCheck checkUrl(Url url) throws SQLException {
+        if (url.getId() == null) {
+            return checkAndSave(url);
+        }
+        CompletableFuture<UrlCheck> flight = new CompletableFuture<>();
+        CompletableFuture<UrlCheck> leader = inFlight.putIfAbsent(url.getId(), flight);
+        if (leader != null) {
+            AppMetrics.countCheckReuse("coalesced");
+            return await(leader);
+        }
         try {
-            HttpResponse<String> response = Unirest.get(url.getName())
-                    .connectTimeout(2000)
-                    .socketTimeout(2000)
-                    .asString();
-            int statusCode = response.getStatus();
-            String body = response.getBody();
-
-            Document doc = Jsoup.parse(body);
-            String title = doc.title().isEmpty() ? null : doc.title();
-            String h1 = doc.selectFirst("h1") != null ? Objects.requireNonNull(doc.selectFirst("h1")).text() : null;
-            String description = doc.selectFirst("meta[name=description]") != null
-                    ? Objects.requireNonNull(doc.selectFirst("meta[name=description]")).attr("content") : null;
+            UrlCheck check = checkAndSave(url);
+            flight.complete(check);
+            return check;
+        } catch (Throwable e) {
+            // followers wait on the future, so it must complete whatever the leader failed with, errors included
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(url.getId(), flight);
+        }
+    }
+
+    private UrlCheck checkAndSave(Url url) throws SQLException {
+        UrlCheck previous = null;
+        if (url.getId() != null) {
+            previous = urlCheckRepository.findLastCheckByUrlId(url.getId()).orElse(null);
+        }
+        Instant freshAfter = Instant.now().minus(settings.minRecheckInterval());
+        if (previous != null && settings.minRecheckInterval().isPositive()
+                && previous.getCreatedAt().toInstant().isAfter(freshAfter)) {
+            AppMetrics.countCheckReuse("recent");
+            return previous;
+        }
+        UrlCheck check = runCheck(url, previous);
+        long persistStartedAt = System.nanoTime();
+        if (writeBuffer != null) {
+            await(writeBuffer.add(check));
+        } else {
+            urlCheckRepository.save(check);
+        }
+        AppMetrics.recordCheckPhase("persist", System.nanoTime() - persistStartedAt);
+        return check;
+    }
+
+    // Waits for a check saved by another call, either a buffered batch write or a coalesced check of the same URL,
+    // so the check is visible once checkUrl returns
+    private static UrlCheck await(CompletableFuture<UrlCheck> future) throws SQLException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof SQLException sqlException) {
+                throw sqlException;
+            }
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Checks the URL without saving the result, so callers can persist checks in batches.
+     * Failed requests produce a check with status code 0 and the FAILED outcome; hosts whose circuit is open
+     * are not contacted and produce one with the CIRCUIT_OPEN outcome at once.
+     * The request is conditional on the validators of the URL's newest check; a 304 answer, or a page whose
+     * extracted fields hash as before, produces a check with the UNCHANGED outcome.
+     * This method is not intended for overriding; for custom check logic,
+     * extend this class and use composition to modify behavior safely.
+     * @param url the URL to check
+     * @return the unsaved URL check
+     */
+    public UrlCheck runCheck(Url url) {
+        UrlCheck previous = null;
+        if (url.getId() != null) {
+            try {
+                previous = urlCheckRepository.findLastCheckByUrlId(url.getId()).orElse(null);
+            } catch (SQLException e) {
+                log.warn("Fetching {} unconditionally, previous check not available: {}", url.getName(),
+                        e.getMessage());
+            }
+        }
+        return runCheck(url, previous);
+    }
+
+    private UrlCheck runCheck(Url url, UrlCheck previous) {
+        if (!circuitBreaker.allowRequest(url.getName())) {
+            AppMetrics.countCheckOutcome(CheckOutcome.CIRCUIT_OPEN, 0);
+            return failedCheck(url, CheckOutcome.CIRCUIT_OPEN);
+        }
+        long waitStartedAt = System.nanoTime();
+        HostRateLimiter.Permit permit = null;
+        try {
+            permit = hostRateLimiter.acquire(url.getName());
+            long fetchStartedAt = System.nanoTime();
+            AppMetrics.recordCheckPhase("host_wait", fetchStartedAt - waitStartedAt);
+            HttpResponse<InputStream> response = pageFetcher.fetchStream(url.getName(), validatorsOf(previous))
+                    .get();
+            long parseStartedAt = System.nanoTime();
+            AppMetrics.recordCheckPhase("fetch", parseStartedAt - fetchStartedAt);
+            circuitBreaker.recordSuccess(url.getName());
+            int statusCode = response.statusCode();
+            if (statusCode == HTTP_NOT_MODIFIED && previous != null) {
+                response.body().close();
+                AppMetrics.countCheckOutcome(CheckOutcome.UNCHANGED, statusCode);
+                UrlCheck check = unchangedCheck(url, previous, response);
+                setTimings(check, response, fetchStartedAt, parseStartedAt, 0);
+                return check;
+            }
+            Charset charset = HtmlMetaExtractor.charsetOf(response.headers().firstValue("Content-Type").orElse(null));
+
+            PageMeta meta;
+            CountingInputStream body = new CountingInputStream(response.body());
+            try (body) {
+                meta = HtmlMetaExtractor.extract(body, charset, settings.maxBodyBytes(), settings.bodyScanChars());
+                drain(body);
+            }
+            AppMetrics.recordCheckPhase("parse", System.nanoTime() - parseStartedAt);
+            // The body is read only up to the scan limits, so a larger declared length is the better size
+            long responseBytes = Math.max(body.getCount(),
+                    response.headers().firstValueAsLong("Content-Length").orElse(0));
+            String contentHash = hashOf(meta);
+            if (previous != null && previous.getStatusCode() == statusCode
+                    && contentHash.equals(previous.getContentHash())) {
+                AppMetrics.countCheckOutcome(CheckOutcome.UNCHANGED, statusCode);
+                UrlCheck check = unchangedCheck(url, previous, response);
+                setTimings(check, response, fetchStartedAt, parseStartedAt, responseBytes);
+                return check;
+            }
+            AppMetrics.countCheckOutcome(CheckOutcome.OK, statusCode);
 
             UrlCheck check = new UrlCheck();
             check.setUrlId(url.getId());
             check.setStatusCode(statusCode);
-            check.setTitle(title);
-            check.setH1(h1);
-            check.setDescription(description);
+            check.setTitle(meta.getTitle());
+            check.setH1(meta.getH1());
+            check.setDescription(meta.getDescription());
             check.setCreatedAt(Timestamp.from(Instant.now()));
-
-            urlCheckRepository.save(check);
+            check.setOutcome(CheckOutcome.OK);
+            check.setContentHash(contentHash);
+            setValidators(check, response, null);
+            setTimings(check, response, fetchStartedAt, parseStartedAt, responseBytes);
             return check;
 
         } catch (Exception e) {
-            UrlCheck check = new UrlCheck();
-            check.setUrlId(url.getId());
-            check.setStatusCode(0);
-            check.setCreatedAt(Timestamp.from(Instant.now()));
-            urlCheckRepository.save(check);
-            return check;
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            } else {
+                circuitBreaker.recordFailure(url.getName(), e);
+            }
+            AppMetrics.countCheckOutcome(CheckOutcome.FAILED, 0);
+            return failedCheck(url, CheckOutcome.FAILED);
+        } finally {
+            // the permit covers the whole exchange, including reading the body
+            if (permit != null) {
+                permit.close();
+            }
+        }
+    }
+
+    // Sends back the validators of the newest check, so servers can answer 304 for an unchanged page
+    private static Map<String, String> validatorsOf(UrlCheck previous) {
+        if (previous == null) {
+            return Map.of();
+        }
+        Map<String, String> headers = new HashMap<>();
+        if (previous.getEtag() != null) {
+            headers.put("If-None-Match", previous.getEtag());
+        }
+        if (previous.getLastModified() != null) {
+            headers.put("If-Modified-Since", previous.getLastModified());
+        }
+        return headers;
+    }
+
+    // The page is as before, so the status code, hash and, unless only markers are stored, the fields carry over
+    private UrlCheck unchangedCheck(Url url, UrlCheck previous, HttpResponse<?> response) {
+        UrlCheck check = new UrlCheck();
+        check.setUrlId(url.getId());
+        check.setStatusCode(previous.getStatusCode());
+        if (settings.unchangedStorage() == UnchangedStorage.FULL) {
+            check.setTitle(previous.getTitle());
+            check.setH1(previous.getH1());
+            check.setDescription(previous.getDescription());
+        }
+        check.setCreatedAt(Timestamp.from(Instant.now()));
+        check.setOutcome(CheckOutcome.UNCHANGED);
+        check.setContentHash(previous.getContentHash());
+        setValidators(check, response, previous);
+        return check;
+    }
+
+    // Keeps the validators of the response, falling back to the previous ones a 304 answer may omit
+    private static void setValidators(UrlCheck check, HttpResponse<?> response, UrlCheck previous) {
+        String etag = response.headers().firstValue("ETag").orElse(previous != null ? previous.getEtag() : null);
+        String lastModified = response.headers().firstValue("Last-Modified")
+                .orElse(previous != null ? previous.getLastModified() : null);
+        check.setEtag(etag != null && etag.length() <= MAX_ETAG_LENGTH ? etag : null);
+        check.setLastModified(lastModified != null && lastModified.length() <= MAX_LAST_MODIFIED_LENGTH
+                ? lastModified : null);
+    }
+
+    // Time to first byte runs until the response headers arrived; the total also covers reading the body.
+    // Both include DNS, connect and TLS when the exchange opened a new connection: the HTTP client reports
+    // neither those steps nor whether it reused a pooled connection, so they cannot be timed on their own
+    private static void setTimings(UrlCheck check, HttpResponse<?> response, long fetchStartedAt, long headersAt,
+                                   long responseBytes) {
+        check.setTtfbMillis(toMillis(headersAt - fetchStartedAt));
+        check.setTotalMillis(toMillis(System.nanoTime() - fetchStartedAt));
+        check.setResponseBytes(responseBytes);
+        int redirects = 0;
+        Optional<? extends HttpResponse<?>> earlier = response.previousResponse();
+        while (earlier.isPresent()) {
+            redirects++;
+            earlier = earlier.get().previousResponse();
+        }
+        check.setRedirectCount(redirects);
+        check.setProtocol(response.version() == HttpClient.Version.HTTP_2 ? "HTTP/2" : "HTTP/1.1");
+    }
+
+    private static int toMillis(long nanos) {
+        return (int) TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    private static String hashOf(PageMeta meta) throws NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        for (String field : new String[] {meta.getTitle(), meta.getH1(), meta.getDescription()}) {
+            // a marker byte keeps a missing field distinct from an empty one
+            digest.update(field == null ? (byte) 0 : (byte) 1);
+            if (field != null) {
+                digest.update(field.getBytes(StandardCharsets.UTF_8));
+            }
+            digest.update((byte) 0);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static UrlCheck failedCheck(Url url, CheckOutcome outcome) {
+        UrlCheck check = new UrlCheck();
+        check.setUrlId(url.getId());
+        check.setStatusCode(0);
+        check.setCreatedAt(Timestamp.from(Instant.now()));
+        check.setOutcome(outcome);
+        return check;
+    }
+
+    // Reads what is left of a small response so its connection can go back to the pool;
+    // larger leftovers are abandoned and the connection is closed with the stream.
+    private static void drain(InputStream body) throws IOException {
+        byte[] buffer = new byte[8192];
+        long drained = 0;
+        int n;
+        while (drained < DRAIN_LIMIT_BYTES && (n = body.read(buffer)) != -1) {
+            drained += n;
+        }
+    }
+
+    /**
+     * What is stored for a check that found the page unchanged.
+     */
+    public enum UnchangedStorage {
+        /** A complete row with the previous title, h1 and description. */
+        FULL,
+        /** A compact marker row with the status code, outcome and validators only. */
+        MARKER
+    }
+
+    /**
+     * Tunables of the check service.
+     * @param maxBodyBytes the maximum number of response bytes read from a page
+     * @param bodyScanChars how many characters after the opening body tag to scan for a missing h1
+     * @param minRecheckInterval how long a check stays fresh enough to be returned instead of a new fetch,
+     *                           or zero to always fetch
+     * @param unchangedStorage what is stored when the page has not changed
+     */
+    public record Settings(long maxBodyBytes, long bodyScanChars, Duration minRecheckInterval,
+                           UnchangedStorage unchangedStorage) {
+        /**
+         * Reads the settings from the CHECK_MAX_BODY_BYTES, CHECK_BODY_SCAN_CHARS, CHECK_MIN_RECHECK_SECONDS
+         * and CHECK_UNCHANGED_STORAGE (full or marker) environment variables.
+         * @return the settings
+         */
+        public static Settings fromEnv() {
+            return new Settings(
+                    AppConfig.getLong("CHECK_MAX_BODY_BYTES", 1024 * 1024),
+                    AppConfig.getLong("CHECK_BODY_SCAN_CHARS", 256 * 1024),
+                    Duration.ofSeconds(AppConfig.getLong("CHECK_MIN_RECHECK_SECONDS", 0)),
+                    UnchangedStorage.valueOf(AppConfig.getString("CHECK_UNCHANGED_STORAGE", "full")
+                            .toUpperCase(Locale.ROOT)));
+        }
+    }
+
+    /**
+     * Input stream that counts the bytes read through it.
+     */
+    private static final class CountingInputStream extends InputStream {
+        private final InputStream in;
+        private long count;
+
+        private CountingInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        private long getCount() {
+            return count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = in.read(buffer, offset, length);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
         }
     }
 }
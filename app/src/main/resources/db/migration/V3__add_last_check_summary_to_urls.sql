@@ -0,0 +1,5 @@
+ALTER TABLE urls ADD COLUMN IF NOT EXISTS last_check_id BIGINT;
+ALTER TABLE urls ADD COLUMN IF NOT EXISTS last_check_status_code INTEGER;
+ALTER TABLE urls ADD COLUMN IF NOT EXISTS last_check_created_at TIMESTAMP;
+
+CREATE INDEX IF NOT EXISTS urls_last_check_created_at_idx ON urls (last_check_created_at);
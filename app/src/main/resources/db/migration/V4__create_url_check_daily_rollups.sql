@@ -0,0 +1,9 @@
+CREATE TABLE IF NOT EXISTS url_check_daily_rollups (
+    url_id BIGINT NOT NULL REFERENCES urls(id) ON DELETE CASCADE,
+    check_day DATE NOT NULL,
+    status_code INTEGER NOT NULL,
+    check_count INTEGER NOT NULL,
+    PRIMARY KEY (url_id, check_day, status_code)
+);
+
+CREATE INDEX IF NOT EXISTS url_checks_created_at_idx ON url_checks (created_at);
@@ -0,0 +1,8 @@
+ALTER TABLE url_checks ADD COLUMN IF NOT EXISTS dns_ms INTEGER;
+ALTER TABLE url_checks ADD COLUMN IF NOT EXISTS connect_ms INTEGER;
+ALTER TABLE url_checks ADD COLUMN IF NOT EXISTS tls_ms INTEGER;
+ALTER TABLE url_checks ADD COLUMN IF NOT EXISTS ttfb_ms INTEGER;
+ALTER TABLE url_checks ADD COLUMN IF NOT EXISTS total_ms INTEGER;
+ALTER TABLE url_checks ADD COLUMN IF NOT EXISTS response_bytes BIGINT;
+ALTER TABLE url_checks ADD COLUMN IF NOT EXISTS redirect_count INTEGER;
+ALTER TABLE url_checks ADD COLUMN IF NOT EXISTS protocol VARCHAR(16);
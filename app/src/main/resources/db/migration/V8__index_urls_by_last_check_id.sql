@@ -0,0 +1 @@
+CREATE INDEX IF NOT EXISTS urls_last_check_id_idx ON urls (last_check_id);
@@ -0,0 +1,3 @@
+ALTER TABLE url_checks DROP COLUMN IF EXISTS dns_ms;
+ALTER TABLE url_checks DROP COLUMN IF EXISTS connect_ms;
+ALTER TABLE url_checks DROP COLUMN IF EXISTS tls_ms;
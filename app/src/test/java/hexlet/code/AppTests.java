@@ -1,8 +1,29 @@
 package hexlet.code;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import gg.jte.ContentType;
+import gg.jte.TemplateEngine;
+import gg.jte.output.StringOutput;
+import hexlet.code.metrics.AppMetrics;
+import hexlet.code.model.CheckCursor;
+import hexlet.code.model.CheckOutcome;
 import hexlet.code.model.Url;
+import hexlet.code.model.UrlCheck;
+import hexlet.code.model.UrlWithLastCheck;
+import hexlet.code.repository.CachedUrlRepository;
 import hexlet.code.repository.UrlCheckRepository;
+import hexlet.code.repository.UrlCheckWriteBuffer;
 import hexlet.code.repository.UrlRepository;
+import hexlet.code.service.BulkCheckReport;
+import hexlet.code.service.BulkCheckService;
+import hexlet.code.service.CheckRetentionJob;
+import hexlet.code.service.HostCircuitBreaker;
+import hexlet.code.service.HostRateLimiter;
+import hexlet.code.service.HtmlMetaExtractor;
+import hexlet.code.service.LastCheckBackfill;
+import hexlet.code.service.PageFetcher;
+import hexlet.code.service.UrlCheckService;
+import hexlet.code.service.UrlCheckService.UnchangedStorage;
 import io.javalin.Javalin;
 import io.javalin.testtools.JavalinTest;
 import okhttp3.FormBody;
@@ -21,12 +42,21 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.AfterEach;
 
 import javax.sql.DataSource;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -35,6 +65,8 @@ public class AppTests {
     private static final String TEST_URL = "https://example.com";
     private static final String EMPTY_HTML = "<html><head></head><body></body></html>";
     private static final String ERROR_HTML = "<html><head></head><body></body></html>";
+    private static final long CHECK_WAIT_MILLIS = 5000;
+    private static final ObjectMapper MAPPER = new ObjectMapper();
 
     private Javalin app;
     private UrlRepository urlRepository;
@@ -102,11 +134,13 @@ public class AppTests {
 
             if ("postgresql".equals(dbProductName)) {
                 // Для PostgreSQL
+                stmt.execute("TRUNCATE TABLE url_check_daily_rollups");
                 stmt.execute("TRUNCATE TABLE url_checks RESTART IDENTITY CASCADE");
                 stmt.execute("TRUNCATE TABLE urls RESTART IDENTITY CASCADE");
             } else {
                 // Для H2
                 stmt.execute("SET REFERENTIAL_INTEGRITY FALSE");
+                stmt.execute("TRUNCATE TABLE url_check_daily_rollups");
                 stmt.execute("TRUNCATE TABLE url_checks RESTART IDENTITY");
                 stmt.execute("TRUNCATE TABLE urls RESTART IDENTITY");
                 stmt.execute("SET REFERENTIAL_INTEGRITY TRUE");
@@ -129,6 +163,16 @@ public class AppTests {
         app.stop();
     }
 
+    private List<UrlCheck> awaitChecks(Long urlId, int expected) throws SQLException, InterruptedException {
+        long deadline = System.currentTimeMillis() + CHECK_WAIT_MILLIS;
+        List<UrlCheck> checks = urlCheckRepository.findByUrlId(urlId);
+        while (checks.size() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+            checks = urlCheckRepository.findByUrlId(urlId);
+        }
+        return checks;
+    }
+
     @Test
     void testGetMainPage() {
         JavalinTest.test(app, (server, client) -> {
@@ -138,6 +182,14 @@ public class AppTests {
         });
     }
 
+    @Test
+    void testPrecompiledTemplatesRender() {
+        TemplateEngine templateEngine = TemplateEngine.createPrecompiled(ContentType.Html);
+        StringOutput output = new StringOutput();
+        templateEngine.render("index.jte", Map.of("flash", "", "flashType", "info"), output);
+        assertThat(output.toString()).contains("URL Analyzer");
+    }
+
     @Test
     void testPostUrlValid() {
         JavalinTest.test(app, (server, client) -> {
@@ -156,8 +208,15 @@ public class AppTests {
                 assertThat(response.code()).isEqualTo(302);
                 assertThat(response.header("Location")).isEqualTo("/urls");
 
-                var redirectResponse = client.get("/urls");
+                String flashCookie = response.header("Set-Cookie").split(";", 2)[0];
+                var redirectResponse = client.get("/urls", builder -> builder.header("Cookie", flashCookie));
                 assertThat(redirectResponse.code()).isEqualTo(200);
+                assertThat(redirectResponse.header("ETag")).isNull();
+                assertThat(redirectResponse.body().string()).contains("Страница успешно добавлена");
+
+                String tampered = flashCookie.replace("flash=", "flash=A");
+                var tamperedResponse = client.get("/urls", builder -> builder.header("Cookie", tampered));
+                assertThat(tamperedResponse.body().string()).doesNotContain("Страница успешно добавлена");
 
                 var urls = urlRepository.findAll();
                 assertThat(urls).hasSize(1);
@@ -243,6 +302,51 @@ public class AppTests {
         });
     }
 
+    @Test
+    void testGetUrlsPageShowsLastCheck() throws SQLException {
+        var url = new Url("https://checked.com", Timestamp.from(Instant.now()));
+        urlRepository.save(url);
+        var oldCheck = new UrlCheck(url.getId(), 500, null, null, null,
+                Timestamp.from(Instant.now().minusSeconds(60)));
+        urlCheckRepository.save(oldCheck);
+        var lastCheck = new UrlCheck(url.getId(), 201, null, null, null, Timestamp.from(Instant.now()));
+        urlCheckRepository.save(lastCheck);
+
+        var urls = urlRepository.findAllWithLastCheck();
+        assertThat(urls).hasSize(1);
+        assertThat(urls.get(0).getLastCheckStatusCode()).isEqualTo(201);
+
+        JavalinTest.test(app, (server, client) -> {
+            var response = client.get("/urls");
+            assertThat(response.code()).isEqualTo(200);
+            var body = response.body().string();
+            assertThat(body).contains("https://checked.com");
+            assertThat(body).contains("201");
+            assertThat(body).doesNotContain("500");
+        });
+    }
+
+    @Test
+    void testGetUrlsPagePaginated() throws SQLException {
+        for (String name : new String[] {"https://one.com", "https://two.com", "https://three.com"}) {
+            urlRepository.save(new Url(name, Timestamp.from(Instant.now())));
+        }
+
+        JavalinTest.test(app, (server, client) -> {
+            var firstPage = client.get("/urls?limit=2").body().string();
+            assertThat(firstPage).contains("https://one.com", "https://two.com", "after=2");
+            assertThat(firstPage).doesNotContain("https://three.com", "before=");
+
+            var secondPage = client.get("/urls?after=2&limit=2").body().string();
+            assertThat(secondPage).contains("https://three.com", "before=3");
+            assertThat(secondPage).doesNotContain("https://one.com", "after=");
+
+            var previousPage = client.get("/urls?before=3&limit=2").body().string();
+            assertThat(previousPage).contains("https://one.com", "https://two.com");
+            assertThat(previousPage).doesNotContain("https://three.com");
+        });
+    }
+
     @Test
     void testGetUrlById() throws SQLException {
         JavalinTest.test(app, (server, client) -> {
@@ -314,7 +418,7 @@ public class AppTests {
                 var redirectResponse = client.get("/urls/" + url.getId());
                 assertThat(redirectResponse.code()).isEqualTo(200);
 
-                var checks = urlCheckRepository.findByUrlId(url.getId());
+                var checks = awaitChecks(url.getId(), 1);
                 assertThat(checks).hasSize(1);
 
                 var check = checks.get(0);
@@ -356,7 +460,7 @@ public class AppTests {
                 assertThat(redirectResponse.code()).isEqualTo(200);
                 assertThat(redirectResponse.body().string()).contains("-");
 
-                var checks = urlCheckRepository.findByUrlId(url.getId());
+                var checks = awaitChecks(url.getId(), 1);
                 assertThat(checks).hasSize(1);
 
                 var check = checks.get(0);
@@ -397,7 +501,7 @@ public class AppTests {
                 var redirectResponse = client.get("/urls/" + url.getId());
                 assertThat(redirectResponse.code()).isEqualTo(200);
 
-                var checks = urlCheckRepository.findByUrlId(url.getId());
+                var checks = awaitChecks(url.getId(), 1);
                 assertThat(checks).hasSize(1);
 
                 var check = checks.get(0);
@@ -412,5 +516,546 @@ public class AppTests {
             }
         });
     }
-}
 
+    @Test
+    void testStalledBodyHitsTotalTimeout() throws Exception {
+        String page = "<html><head><title>Slow</title></head><body>" + "x".repeat(64) + "</body></html>";
+        mockWebServer.enqueue(new MockResponse().setResponseCode(200).setBody(page)
+                .throttleBody(16, 10, TimeUnit.SECONDS));
+        var url = urlRepository.save(new Url(mockWebServer.url("/stalled").toString(), Timestamp.from(Instant.now())));
+
+        long startedAt = System.nanoTime();
+        try (var pageFetcher = new PageFetcher(Duration.ofSeconds(1), Duration.ofSeconds(1), Duration.ofMillis(500))) {
+            var service = new UrlCheckService(urlCheckRepository, null, pageFetcher,
+                    new HostRateLimiter(new HostRateLimiter.Limits(0, 1, 8), Map.of()),
+                    new HostCircuitBreaker(3, Duration.ofMinutes(1), Duration.ZERO),
+                    new UrlCheckService.Settings(1024, 1024, Duration.ZERO, UnchangedStorage.FULL));
+            assertThat(service.runCheck(url).getOutcome()).isEqualTo(CheckOutcome.FAILED);
+        }
+        assertThat(Duration.ofNanos(System.nanoTime() - startedAt)).isLessThan(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void testBulkCheckAll() throws Exception {
+        var first = new Url(mockWebServer.url("/first").toString(), Timestamp.from(Instant.now()));
+        urlRepository.save(first);
+        var second = new Url(mockWebServer.url("/second").toString(), Timestamp.from(Instant.now()));
+        urlRepository.save(second);
+        mockWebServer.enqueue(new MockResponse().setResponseCode(200).setBody(EMPTY_HTML));
+        mockWebServer.enqueue(new MockResponse().setResponseCode(200).setBody(EMPTY_HTML));
+
+        BulkCheckReport report;
+        try (var pageFetcher = PageFetcher.fromEnv()) {
+            var bulkCheckService = new BulkCheckService(urlRepository, urlCheckRepository,
+                    new UrlCheckService(urlCheckRepository, pageFetcher), 4, 2, 10);
+            report = bulkCheckService.checkAll(null);
+        }
+
+        assertThat(report.getTotal()).isEqualTo(2);
+        assertThat(report.getFailed()).isZero();
+        assertThat(report.getUnsaved()).isZero();
+        assertThat(report.getMaxMillis()).isGreaterThanOrEqualTo(report.getP50Millis());
+        assertThat(urlCheckRepository.findByUrlId(first.getId())).hasSize(1);
+        assertThat(urlCheckRepository.findByUrlId(second.getId())).hasSize(1);
+    }
+
+    @Test
+    void testHostRateLimiterSharesBudgetPerHost() throws Exception {
+        var limiter = new HostRateLimiter(new HostRateLimiter.Limits(0, 1, 8),
+                Map.of("polite.example.com", new HostRateLimiter.Limits(20, 2, 1)));
+
+        long startedAt = System.nanoTime();
+        for (int i = 0; i < 4; i++) {
+            limiter.acquire("https://polite.example.com/page" + i).close();
+        }
+        assertThat(Duration.ofNanos(System.nanoTime() - startedAt)).isGreaterThanOrEqualTo(Duration.ofMillis(90));
+
+        var permit = limiter.acquire("http://polite.example.com:8080/");
+        assertThat(limiter.getInFlight("https://POLITE.example.com/other")).isEqualTo(1);
+        var waiter = Thread.ofVirtual().start(() -> {
+            try {
+                limiter.acquire("https://polite.example.com/").close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertThat(waiter.join(Duration.ofMillis(200))).isFalse();
+        permit.close();
+        assertThat(waiter.join(Duration.ofSeconds(5))).isTrue();
+
+        var otherPermit = limiter.acquire("https://other.example.com/");
+        int trackedHosts = limiter.getTrackedHosts();
+        otherPermit.close();
+        assertThat(limiter.getInFlight("https://other.example.com/")).isZero();
+        // an unlimited host's bucket is always full, so its state goes as soon as the last check is done
+        assertThat(limiter.getTrackedHosts()).isEqualTo(trackedHosts - 1);
+    }
+
+    @Test
+    void testCircuitBreakerSkipsUnreachableHosts() throws Exception {
+        var url = urlRepository.save(new Url("http://127.0.0.1:1", Timestamp.from(Instant.now())));
+        var breaker = new HostCircuitBreaker(2, Duration.ofMinutes(1), Duration.ofMinutes(1));
+        try (var pageFetcher = PageFetcher.fromEnv()) {
+            var service = new UrlCheckService(urlCheckRepository, null, pageFetcher,
+                    new HostRateLimiter(new HostRateLimiter.Limits(0, 1, 8), Map.of()), breaker,
+                    new UrlCheckService.Settings(1024, 1024, Duration.ZERO, UnchangedStorage.FULL));
+            assertThat(service.runCheck(url).getOutcome()).isEqualTo(CheckOutcome.FAILED);
+            assertThat(breaker.isOpen(url.getName())).isTrue();
+            var skipped = service.checkUrl(url);
+            assertThat(skipped.getOutcome()).isEqualTo(CheckOutcome.CIRCUIT_OPEN);
+            assertThat(skipped.getStatusCode()).isZero();
+        }
+        assertThat(urlCheckRepository.findByUrlId(url.getId()))
+                .extracting(UrlCheck::getOutcome).containsExactly(CheckOutcome.CIRCUIT_OPEN);
+
+        var halfOpen = new HostCircuitBreaker(1, Duration.ofMillis(50), Duration.ZERO);
+        halfOpen.recordFailure("https://flaky.example.com", new IOException("reset"));
+        assertThat(halfOpen.allowRequest("https://flaky.example.com/page")).isFalse();
+        Thread.sleep(60);
+        assertThat(halfOpen.allowRequest("https://flaky.example.com/page")).isTrue();
+        assertThat(halfOpen.allowRequest("https://flaky.example.com/other")).isFalse();
+        halfOpen.recordSuccess("https://flaky.example.com/page");
+        assertThat(halfOpen.allowRequest("https://flaky.example.com/other")).isTrue();
+    }
+
+    @Test
+    void testConcurrentChecksOfOneUrlAreCoalesced() throws Exception {
+        var url = urlRepository.save(new Url(mockWebServer.url("/single").toString(), Timestamp.from(Instant.now())));
+        mockWebServer.enqueue(new MockResponse().setResponseCode(200).setBody(EMPTY_HTML)
+                .setHeadersDelay(300, TimeUnit.MILLISECONDS));
+        int requestsBefore = mockWebServer.getRequestCount();
+
+        try (var pageFetcher = PageFetcher.fromEnv(); var callers = Executors.newVirtualThreadPerTaskExecutor()) {
+            var limiter = new HostRateLimiter(new HostRateLimiter.Limits(0, 1, 8), Map.of());
+            var breaker = new HostCircuitBreaker(3, Duration.ofMinutes(1), Duration.ZERO);
+            var service = new UrlCheckService(urlCheckRepository, null, pageFetcher, limiter, breaker,
+                    new UrlCheckService.Settings(1024, 1024, Duration.ZERO, UnchangedStorage.FULL));
+            var first = CompletableFuture.supplyAsync(() -> checkUnchecked(service, url), callers);
+            var second = CompletableFuture.supplyAsync(() -> checkUnchecked(service, url), callers);
+            assertThat(first.get(5, TimeUnit.SECONDS)).isSameAs(second.get(5, TimeUnit.SECONDS));
+            assertThat(mockWebServer.getRequestCount() - requestsBefore).isEqualTo(1);
+
+            var throttled = new UrlCheckService(urlCheckRepository, null, pageFetcher, limiter, breaker,
+                    new UrlCheckService.Settings(1024, 1024, Duration.ofMinutes(5), UnchangedStorage.FULL));
+            assertThat(throttled.checkUrl(url).getId()).isEqualTo(first.get().getId());
+            assertThat(mockWebServer.getRequestCount() - requestsBefore).isEqualTo(1);
+        }
+        assertThat(urlCheckRepository.findByUrlId(url.getId())).hasSize(1);
+    }
+
+    @Test
+    void testUnchangedPagesAreDetected() throws Exception {
+        String page = "<html><head><title>Stable</title></head><body><h1>Same</h1></body></html>";
+        try (var server = new MockWebServer(); var pageFetcher = PageFetcher.fromEnv()) {
+            server.enqueue(new MockResponse().setResponseCode(200).setBody(page).setHeader("ETag", "\"v1\""));
+            server.enqueue(new MockResponse().setResponseCode(304).setHeader("ETag", "\"v1\""));
+            server.enqueue(new MockResponse().setResponseCode(200).setBody(page));
+            server.start();
+            var url = urlRepository.save(new Url(server.url("/stable").toString(), Timestamp.from(Instant.now())));
+            var limiter = new HostRateLimiter(new HostRateLimiter.Limits(0, 1, 8), Map.of());
+            var breaker = new HostCircuitBreaker(3, Duration.ofMinutes(1), Duration.ZERO);
+            var full = new UrlCheckService(urlCheckRepository, null, pageFetcher, limiter, breaker,
+                    new UrlCheckService.Settings(1024, 1024, Duration.ZERO, UnchangedStorage.FULL));
+            var marker = new UrlCheckService(urlCheckRepository, null, pageFetcher, limiter, breaker,
+                    new UrlCheckService.Settings(1024, 1024, Duration.ZERO, UnchangedStorage.MARKER));
+
+            var first = full.checkUrl(url);
+            assertThat(first.getOutcome()).isEqualTo(CheckOutcome.OK);
+            assertThat(first.getEtag()).isEqualTo("\"v1\"");
+            assertThat(server.takeRequest().getHeader("If-None-Match")).isNull();
+
+            var notModified = full.checkUrl(url);
+            assertThat(server.takeRequest().getHeader("If-None-Match")).isEqualTo("\"v1\"");
+            assertThat(notModified.getOutcome()).isEqualTo(CheckOutcome.UNCHANGED);
+            assertThat(notModified.getStatusCode()).isEqualTo(200);
+            assertThat(notModified.getTitle()).isEqualTo("Stable");
+            assertThat(notModified.getContentHash()).isEqualTo(first.getContentHash());
+
+            var sameHash = marker.checkUrl(url);
+            assertThat(sameHash.getOutcome()).isEqualTo(CheckOutcome.UNCHANGED);
+            assertThat(sameHash.getTitle()).isNull();
+            assertThat(sameHash.getEtag()).isEqualTo("\"v1\"");
+            assertThat(urlCheckRepository.findByUrlId(url.getId())).hasSize(3);
+        }
+    }
+
+    @Test
+    void testChecksRecordResponseTimings() throws Exception {
+        String page = "<html><head><title>Timed</title></head><body><h1>Timed</h1></body></html>";
+        mockWebServer.enqueue(new MockResponse().setResponseCode(301).setHeader("Location", "/timed-final"));
+        mockWebServer.enqueue(new MockResponse().setResponseCode(200).setBody(page)
+                .setHeadersDelay(50, TimeUnit.MILLISECONDS));
+        var url = urlRepository.save(new Url(mockWebServer.url("/timed").toString(), Timestamp.from(Instant.now())));
+        UrlCheck check;
+        try (var pageFetcher = new PageFetcher(Duration.ofSeconds(2), Duration.ofSeconds(2), Duration.ofSeconds(5))) {
+            var service = new UrlCheckService(urlCheckRepository, null, pageFetcher,
+                    new HostRateLimiter(new HostRateLimiter.Limits(0, 1, 8), Map.of()),
+                    new HostCircuitBreaker(3, Duration.ofMinutes(1), Duration.ZERO),
+                    new UrlCheckService.Settings(1024, 1024, Duration.ZERO, UnchangedStorage.FULL));
+            check = service.runCheck(url);
+            urlCheckRepository.save(check);
+        }
+        assertThat(check.getTtfbMillis()).isGreaterThanOrEqualTo(50);
+        assertThat(check.getTotalMillis()).isGreaterThanOrEqualTo(check.getTtfbMillis());
+        assertThat(check.getResponseBytes()).isEqualTo(page.length());
+        assertThat(check.getRedirectCount()).isEqualTo(1);
+        assertThat(check.getProtocol()).isEqualTo("HTTP/1.1");
+
+        JavalinTest.test(app, (server, client) -> {
+            var checks = MAPPER.readTree(client.get("/api/urls/" + url.getId() + "/checks").body().string());
+            assertThat(checks.get(0).get("timings").get("totalMs").asInt()).isEqualTo(check.getTotalMillis());
+            assertThat(checks.get(0).get("timings").has("tlsMs")).isFalse();
+
+            var body = client.get("/urls/" + url.getId()).body().string();
+            assertThat(body).contains("<polyline").contains(check.getTotalMillis() + " ms").contains("1 redirects");
+        });
+    }
+
+    private static UrlCheck checkUnchecked(UrlCheckService service, Url url) {
+        try {
+            return service.checkUrl(url);
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Test
+    void testFindDueForRecheckPrioritizesUncheckedAndFailed() throws SQLException {
+        Instant now = Instant.now();
+        var fresh = urlRepository.save(new Url("https://fresh.com", Timestamp.from(now)));
+        var stale = urlRepository.save(new Url("https://stale.com", Timestamp.from(now)));
+        var failed = urlRepository.save(new Url("https://failed.com", Timestamp.from(now)));
+        var unchecked = urlRepository.save(new Url("https://unchecked.com", Timestamp.from(now)));
+        urlCheckRepository.save(new UrlCheck(fresh.getId(), 200, null, null, null, Timestamp.from(now)));
+        urlCheckRepository.save(new UrlCheck(stale.getId(), 200, null, null, null,
+                Timestamp.from(now.minusSeconds(7200))));
+        urlCheckRepository.save(new UrlCheck(failed.getId(), 0, null, null, null,
+                Timestamp.from(now.minusSeconds(600))));
+
+        var due = urlRepository.findDueForRecheck(Timestamp.from(now.minusSeconds(3600)),
+                Timestamp.from(now.minusSeconds(300)), 10);
+
+        assertThat(due).extracting(UrlWithLastCheck::getName)
+                .containsExactly("https://unchecked.com", "https://failed.com", "https://stale.com");
+        assertThat(due.get(0).getId()).isEqualTo(unchecked.getId());
+    }
+
+    @Test
+    void testGetSchedulerStatus() {
+        JavalinTest.test(app, (server, client) -> {
+            var response = client.get("/scheduler/status");
+            assertThat(response.code()).isEqualTo(200);
+            assertThat(response.body().string()).contains("\"lagSeconds\"");
+        });
+    }
+
+    @Test
+    void testDatabaseInitializerKeepsExistingData() throws SQLException {
+        Url url = urlRepository.save(new Url("https://kept.example.com", Timestamp.from(Instant.now())));
+
+        DatabaseInitializer.initialize(DataSourceConfig.getDataSource());
+
+        assertThat(urlRepository.findById(url.getId())).isPresent();
+        try (var conn = DataSourceConfig.getDataSource().getConnection();
+             var stmt = conn.createStatement();
+             var rs = stmt.executeQuery("SELECT MIN(version), MAX(version), COUNT(*) FROM schema_version")) {
+            assertThat(rs.next()).isTrue();
+            assertThat(rs.getInt(1)).isEqualTo(1);
+            assertThat(rs.getInt(3)).isEqualTo(rs.getInt(2));
+        }
+
+        // scripts whose objects exist but whose versions were never recorded, as after a half-applied H2 script
+        try (var conn = DataSourceConfig.getDataSource().getConnection();
+             var stmt = conn.createStatement()) {
+            stmt.executeUpdate("DELETE FROM schema_version WHERE version > 1");
+        }
+        DatabaseInitializer.initialize(DataSourceConfig.getDataSource());
+        assertThat(urlRepository.findById(url.getId())).isPresent();
+    }
+
+    @Test
+    void testCheckHistoryIsPaginated() throws SQLException {
+        Instant now = Instant.now();
+        var url = urlRepository.save(new Url("https://history.example.com", Timestamp.from(now)));
+        for (int i = 0; i < 5; i++) {
+            urlCheckRepository.save(new UrlCheck(url.getId(), 200 + i, null, null, null,
+                    Timestamp.from(now.minusSeconds(60 - i))));
+        }
+
+        var firstPage = urlCheckRepository.findPageByUrlId(url.getId(), null, 2);
+        assertThat(firstPage.getItems()).extracting(UrlCheck::getStatusCode).containsExactly(204, 203);
+        assertThat(firstPage.hasNext()).isTrue();
+        var cursor = CheckCursor.parse(CheckCursor.of(firstPage.getLast()).toString());
+        var secondPage = urlCheckRepository.findPageByUrlId(url.getId(), cursor, 2);
+        assertThat(secondPage.getItems()).extracting(UrlCheck::getStatusCode).containsExactly(202, 201);
+        var lastPage = urlCheckRepository.findPageByUrlId(url.getId(), CheckCursor.of(secondPage.getLast()), 2);
+        assertThat(lastPage.getItems()).extracting(UrlCheck::getStatusCode).containsExactly(200);
+        assertThat(lastPage.hasPrevious()).isTrue();
+        assertThat(lastPage.hasNext()).isFalse();
+
+        JavalinTest.test(app, (server, client) -> {
+            var response = client.get("/urls/" + url.getId() + "?limit=2&before=" + cursor);
+            String body = response.body().string();
+            assertThat(body).contains("<td>202</td>", "<td>201</td>", "Newest", "Older");
+            assertThat(body).doesNotContain("<td>204</td>");
+        });
+    }
+
+    @Test
+    void testJsonApiStreamsUrlsAndChecks() throws SQLException {
+        Instant now = Instant.now();
+        var checked = urlRepository.save(new Url("https://api.example.com", Timestamp.from(now)));
+        var unchecked = urlRepository.save(new Url("https://api-unchecked.example.com", Timestamp.from(now)));
+        for (int i = 0; i < 3; i++) {
+            urlCheckRepository.save(new UrlCheck(checked.getId(), 200 + i, "Title \"" + i + "\"", null, null,
+                    Timestamp.from(now.minusSeconds(60 - i))));
+        }
+
+        JavalinTest.test(app, (server, client) -> {
+            var list = client.get("/api/urls");
+            assertThat(list.code()).isEqualTo(200);
+            assertThat(list.header("Content-Type")).startsWith("application/json");
+            var urls = MAPPER.readTree(list.body().string());
+            assertThat(urls).hasSize(2);
+            assertThat(urls.get(0).get("name").asText()).isEqualTo("https://api.example.com");
+            assertThat(urls.get(0).get("lastCheck").get("statusCode").asInt()).isEqualTo(202);
+            assertThat(urls.get(1).get("lastCheck").isNull()).isTrue();
+
+            var limited = MAPPER.readTree(client.get("/api/urls?after=" + checked.getId() + "&limit=1")
+                    .body().string());
+            assertThat(limited).hasSize(1);
+            assertThat(limited.get(0).get("id").asLong()).isEqualTo(unchecked.getId());
+
+            var one = MAPPER.readTree(client.get("/api/urls/" + checked.getId()).body().string());
+            assertThat(one.get("name").asText()).isEqualTo("https://api.example.com");
+
+            var checks = MAPPER.readTree(client.get("/api/urls/" + checked.getId() + "/checks").body().string());
+            assertThat(checks).hasSize(3);
+            assertThat(checks.get(0).get("statusCode").asInt()).isEqualTo(202);
+            assertThat(checks.get(0).get("title").asText()).isEqualTo("Title \"2\"");
+            assertThat(checks.get(0).get("h1").isNull()).isTrue();
+
+            var older = MAPPER.readTree(client.get("/api/urls/" + checked.getId() + "/checks?limit=1&before="
+                    + checks.get(0).get("createdAt").asText() + "," + checks.get(0).get("id").asLong())
+                    .body().string());
+            assertThat(older).hasSize(1);
+            assertThat(older.get(0).get("statusCode").asInt()).isEqualTo(201);
+
+            assertThat(client.get("/api/urls/999999").code()).isEqualTo(404);
+            assertThat(client.get("/api/urls/999999/checks").code()).isEqualTo(404);
+        });
+    }
+
+    @Test
+    void testReadPagesAnswerConditionalGets() throws SQLException {
+        var url = urlRepository.save(new Url("https://etag.example.com", Timestamp.from(Instant.now())));
+
+        JavalinTest.test(app, (server, client) -> {
+            var list = client.get("/urls");
+            String listTag = list.header("ETag");
+            assertThat(listTag).isNotNull();
+            var unchangedList = client.get("/urls", builder -> builder.header("If-None-Match", listTag));
+            assertThat(unchangedList.code()).isEqualTo(304);
+            assertThat(unchangedList.body().string()).isEmpty();
+
+            String showTag = client.get("/urls/" + url.getId()).header("ETag");
+            var unchangedShow = client.get("/urls/" + url.getId(), builder -> builder.header("If-None-Match", showTag));
+            assertThat(unchangedShow.code()).isEqualTo(304);
+
+            urlCheckRepository.save(new UrlCheck(url.getId(), 200, null, null, null, Timestamp.from(Instant.now())));
+
+            var changedList = client.get("/urls", builder -> builder.header("If-None-Match", listTag));
+            assertThat(changedList.code()).isEqualTo(200);
+            assertThat(changedList.header("ETag")).isNotEqualTo(listTag);
+            var changedShow = client.get("/urls/" + url.getId(), builder -> builder.header("If-None-Match", showTag));
+            assertThat(changedShow.code()).isEqualTo(200);
+            assertThat(changedShow.body().string()).contains("<td>200</td>");
+
+            // a URL added by another process, bypassing this one's repositories, changes the list too
+            String refreshedTag = changedList.header("ETag");
+            try (Connection conn = DataSourceConfig.getDataSource().getConnection();
+                 var stmt = conn.prepareStatement("INSERT INTO urls (name, created_at) VALUES (?, ?)")) {
+                stmt.setString(1, "https://elsewhere.example.com");
+                stmt.setTimestamp(2, Timestamp.from(Instant.now()));
+                stmt.executeUpdate();
+            }
+            assertThat(client.get("/urls", builder -> builder.header("If-None-Match", refreshedTag)).code())
+                    .isEqualTo(200);
+        });
+    }
+
+    @Test
+    void testCheckRetentionRollsUpOldChecks() throws SQLException {
+        Instant now = Instant.now();
+        Timestamp twoDaysAgo = Timestamp.from(now.minus(Duration.ofDays(2)));
+        var url = urlRepository.save(new Url("https://retained.example.com", Timestamp.from(now)));
+        urlCheckRepository.saveAll(List.of(
+                new UrlCheck(url.getId(), 200, null, null, null, twoDaysAgo),
+                new UrlCheck(url.getId(), 200, null, null, null, twoDaysAgo),
+                new UrlCheck(url.getId(), 500, null, null, null, twoDaysAgo),
+                new UrlCheck(url.getId(), 200, null, null, null, Timestamp.from(now))));
+
+        var job = new CheckRetentionJob(urlCheckRepository, Duration.ofDays(1), Duration.ofHours(1), 2);
+        assertThat(job.runOnce()).isEqualTo(3);
+
+        assertThat(urlCheckRepository.findByUrlId(url.getId())).hasSize(1);
+        var rollups = urlCheckRepository.findDailyRollups(url.getId(), 30);
+        assertThat(rollups).hasSize(1);
+        assertThat(rollups.get(0).getDay()).isEqualTo(twoDaysAgo.toLocalDateTime().toLocalDate());
+        assertThat(rollups.get(0).getTotal()).isEqualTo(3);
+        assertThat(rollups.get(0).getStatusCounts()).containsEntry(200, 2).containsEntry(500, 1);
+
+        JavalinTest.test(app, (server, client) -> {
+            var response = client.get("/urls/" + url.getId());
+            assertThat(response.body().string()).contains("Daily history", "67%");
+        });
+    }
+
+    @Test
+    void testSaveAllFitsLongTitlesIntoTheirColumns() throws SQLException {
+        var url = urlRepository.save(new Url("https://long-title.example.com", Timestamp.from(Instant.now())));
+        String longTitle = "t".repeat(4000);
+        urlCheckRepository.saveAll(List.of(
+                new UrlCheck(url.getId(), 200, "Short", null, null, Timestamp.from(Instant.now())),
+                new UrlCheck(url.getId(), 200, longTitle, "h".repeat(300), null, Timestamp.from(Instant.now()))));
+
+        var checks = urlCheckRepository.findByUrlId(url.getId());
+        assertThat(checks).hasSize(2);
+        assertThat(checks).extracting(UrlCheck::getTitle).contains("Short", longTitle.substring(0, 255));
+        assertThat(checks).extracting(UrlCheck::getH1).contains("h".repeat(255));
+    }
+
+    @Test
+    void testUrlCheckWriteBufferFlushesBySizeAndInterval() throws Exception {
+        var url = urlRepository.save(new Url("https://buffered.example.com", Timestamp.from(Instant.now())));
+        try (var writeBuffer = UrlCheckWriteBuffer.create(urlCheckRepository, 2, Duration.ofMillis(20))) {
+            var first = writeBuffer.add(new UrlCheck(url.getId(), 200, null, null, null,
+                    Timestamp.from(Instant.now())));
+            var second = writeBuffer.add(new UrlCheck(url.getId(), 201, null, null, null,
+                    Timestamp.from(Instant.now())));
+            assertThat(first).isDone();
+            assertThat(second.get().getId()).isNotNull();
+
+            var third = writeBuffer.add(new UrlCheck(url.getId(), 202, null, null, null,
+                    Timestamp.from(Instant.now())));
+            assertThat(third.get(CHECK_WAIT_MILLIS, TimeUnit.MILLISECONDS).getId()).isNotNull();
+        }
+        assertThat(urlCheckRepository.findByUrlId(url.getId())).hasSize(3);
+    }
+
+    @Test
+    void testLastCheckSummaryMaintainedAndBackfilled() throws SQLException {
+        Instant now = Instant.now();
+        var url = urlRepository.save(new Url("https://summary.example.com", Timestamp.from(now)));
+        var newer = new UrlCheck(url.getId(), 200, null, null, null, Timestamp.from(now));
+        var older = new UrlCheck(url.getId(), 500, null, null, null, Timestamp.from(now.minusSeconds(60)));
+        urlCheckRepository.save(newer);
+        urlCheckRepository.saveAll(List.of(older));
+
+        var summary = urlRepository.findAllWithLastCheck().get(0);
+        assertThat(summary.getLastCheckStatusCode()).isEqualTo(200);
+        assertThat(summary.getLastCheckCreatedAt())
+                .isEqualTo(urlCheckRepository.findLastCheckByUrlId(url.getId()).orElseThrow().getCreatedAt());
+
+        try (var conn = DataSourceConfig.getDataSource().getConnection();
+             var stmt = conn.createStatement()) {
+            stmt.executeUpdate("UPDATE urls SET last_check_id = NULL, last_check_status_code = NULL, "
+                    + "last_check_created_at = NULL");
+        }
+        assertThat(new LastCheckBackfill(urlRepository, 1).run()).isEqualTo(1);
+        assertThat(urlRepository.findAllWithLastCheck().get(0).getLastCheckStatusCode()).isEqualTo(200);
+    }
+
+    @Test
+    void testSaveIfAbsentInsertsOnce() throws SQLException {
+        Url first = new Url("https://once.example.com", Timestamp.from(Instant.now()));
+        Url second = new Url("https://once.example.com", Timestamp.from(Instant.now()));
+
+        assertThat(urlRepository.saveIfAbsent(first)).isTrue();
+        assertThat(first.getId()).isNotNull();
+        assertThat(urlRepository.saveIfAbsent(second)).isFalse();
+        assertThat(second.getId()).isNull();
+        assertThat(urlRepository.findByName("https://once.example.com").orElseThrow().getId())
+                .isEqualTo(first.getId());
+    }
+
+    @Test
+    void testCachedUrlRepositoryServesRepeatedLookups() throws SQLException {
+        var cachedRepository = new CachedUrlRepository(DataSourceConfig.getDataSource(), 100);
+        Url url = cachedRepository.save(new Url("https://cached.example.com", Timestamp.from(Instant.now())));
+
+        assertThat(cachedRepository.findById(url.getId())).isPresent();
+        assertThat(cachedRepository.findByName("https://cached.example.com")).isPresent();
+        assertThat(cachedRepository.findById(-1L)).isEmpty();
+
+        assertThat(cachedRepository.getIdStats().hitCount()).isEqualTo(1);
+        assertThat(cachedRepository.getIdStats().missCount()).isEqualTo(1);
+        assertThat(cachedRepository.getNameStats().hitCount()).isEqualTo(1);
+
+        // changing a returned object leaves the cached entry alone
+        cachedRepository.findById(url.getId()).orElseThrow().setName("https://changed.example.com");
+        url.getCreatedAt().setTime(0);
+        Url again = cachedRepository.findById(url.getId()).orElseThrow();
+        assertThat(again.getName()).isEqualTo("https://cached.example.com");
+        assertThat(again.getCreatedAt().getTime()).isNotZero();
+    }
+
+    @Test
+    void testGetMetrics() throws SQLException {
+        urlRepository.save(new Url("https://metered.example.com", Timestamp.from(Instant.now())));
+        JavalinTest.test(app, (server, client) -> {
+            client.get("/urls");
+            client.get("/api/urls");
+            var response = client.get("/metrics");
+            assertThat(response.code()).isEqualTo(200);
+            String body = response.body().string();
+            assertThat(body).contains("http_server_requests_seconds_bucket");
+            assertThat(body).contains("route=\"/urls\"");
+            assertThat(body).contains("db_query_seconds");
+            // streamed reads count as queries and writes have their own family
+            assertThat(body).contains("db_query_seconds_count{method=\"UrlRepository.streamWithLastCheck\"");
+            assertThat(body).contains("db_update_seconds_count{method=\"UrlRepository.save\"");
+            assertThat(body).doesNotContain("db_query_seconds_count{method=\"UrlRepository.save\"");
+            assertThat(body).contains("hikaricp_connections");
+        });
+    }
+
+    @Test
+    void testGaugesReadTheRunningApp() {
+        JavalinTest.test(app, (server, client) -> {
+            assertThat(AppMetrics.registry().find("check.queue.depth").gauges()).hasSize(1);
+            assertThat(client.get("/metrics").body().string()).contains("check_queue_depth", "check_queue_active");
+        });
+        assertThat(AppMetrics.registry().find("check.queue.depth").gauge()).isNull();
+        assertThat(AppMetrics.registry().find("recheck.scheduler.lag.seconds").gauge()).isNull();
+    }
+
+    @Test
+    void testHtmlMetaExtractor() throws IOException {
+        String html = """
+                <!DOCTYPE html>
+                <html><head>
+                <!-- <title>Commented</title> -->
+                <script>var s = "<h1>not a heading</h1>";</script>
+                <title>  Caf&eacute;
+                  Menu </title>
+                <META NAME="Description" content='Fish &amp; chips'>
+                </head><body><h1>Daily <b>specials</b></h1></body></html>
+                """;
+        var meta = HtmlMetaExtractor.extract(new ByteArrayInputStream(html.getBytes(StandardCharsets.UTF_8)),
+                StandardCharsets.UTF_8, 1024 * 1024, 1024);
+        assertThat(meta.getTitle()).isEqualTo("Café Menu");
+        assertThat(meta.getH1()).isEqualTo("Daily specials");
+        assertThat(meta.getDescription()).isEqualTo("Fish & chips");
+
+        String huge = "<html><head><title>Big</title></head><body>" + "x".repeat(5_000_000) + "<h1>Late</h1>";
+        var hugeMeta = HtmlMetaExtractor.extract(new ByteArrayInputStream(huge.getBytes(StandardCharsets.UTF_8)),
+                StandardCharsets.UTF_8, 64 * 1024, 1024);
+        assertThat(hugeMeta.getTitle()).isEqualTo("Big");
+        assertThat(hugeMeta.getH1()).isNull();
+
+        assertThat(HtmlMetaExtractor.charsetOf("text/html; charset=windows-1251"))
+                .isEqualTo(Charset.forName("windows-1251"));
+        assertThat(HtmlMetaExtractor.charsetOf(null)).isEqualTo(StandardCharsets.UTF_8);
+    }
+}